@@ -0,0 +1,155 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// BatchQuery.java
+// Answers board positions in bulk, with no menus. Reads one position per line
+// from stdin, like XO_X_O___ (squares 0 to 8; X, O, and _ for blank, with . or
+// - also allowed for blank), and writes one line per position to stdout:
+//    <value> <best square> <every best square>
+// for example "DRAW 4 2468". The value is from X's perspective. A finished game
+// gets "WIN - -" (or LOSS/DRAW), and a line that isn't a position that can come
+// up in a game gets "INVALID". Reads and writes go through NIO channels in big
+// buffers, and each line is parsed and answered straight from the Oracle with
+// no allocation. Uses Oracle.java, which starts from the snapshot file when
+// there is one (see TreeSnapshot.java) and builds a GameTree otherwise.
+// *****************************************************************************
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+public class BatchQuery {
+
+   private static final int BUFFER_SIZE = 1 << 16;
+   
+   // Longest possible output line: "DRAW 0 012345678\n".
+   private static final int MAX_LINE = 17;
+   
+   private static final byte[][] VALUE_NAMES = new byte[Node.Values.values().length][];
+   private static final byte[] INVALID = "INVALID\n".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] NO_MOVES = " - -\n".getBytes(StandardCharsets.US_ASCII);
+   
+   static {
+      for(Node.Values value : Node.Values.values()) {
+         VALUE_NAMES[value.ordinal()] = value.name().getBytes(StandardCharsets.US_ASCII);
+      }
+   }
+   
+   private Oracle oracle;
+   private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+   private WritableByteChannel out_channel;
+   
+   // Powers of 3, for building the key one square at a time.
+   private int[] powers = {1, 3, 9, 27, 81, 243, 729, 2187, 6561};
+   
+   public BatchQuery(Oracle new_oracle, WritableByteChannel output) {
+      oracle = new_oracle;
+      out_channel = output;
+   }
+   
+   // Answers every line from input until it runs out. Returns how many lines were answered.
+   public long run(ReadableByteChannel input) throws IOException {
+      ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      long lines = 0;
+      
+      // The position being read: key so far, how many squares, and whether anything was wrong with it.
+      int key = 0;
+      int squares = 0;
+      boolean bad = false;
+      
+      while(input.read(in) != -1) {
+         in.flip();
+         while(in.hasRemaining()) {
+            byte c = in.get();
+            if(c == '\n') {
+               answer(key, squares, bad);
+               lines++;
+               key = 0;
+               squares = 0;
+               bad = false;
+            }
+            else if(c == '\r') {
+               continue;
+            }
+            else if(squares == 9) {
+               bad = true;
+            }
+            else if(c == 'X' || c == 'x') {
+               key += powers[squares++];
+            }
+            else if(c == 'O' || c == 'o') {
+               key += 2 * powers[squares++];
+            }
+            else if(c == '_' || c == '.' || c == '-') {
+               squares++;
+            }
+            else {
+               bad = true;
+            }
+         }
+         in.clear();
+      }
+      
+      // The last line might not end with a newline.
+      if(squares > 0 || bad) {
+         answer(key, squares, bad);
+         lines++;
+      }
+      flush();
+      return lines;
+   }
+   
+   private void answer(int key, int squares, boolean bad) throws IOException {
+      if(out.remaining() < MAX_LINE) {
+         flush();
+      }
+      
+      Node.Values value = bad || squares != 9 ? null : oracle.get_value(key);
+      if(value == null) {
+         out.put(INVALID);
+         return;
+      }
+      
+      out.put(VALUE_NAMES[value.ordinal()]);
+      int best = oracle.get_best_square(key);
+      if(best == -1) {
+         out.put(NO_MOVES);
+         return;
+      }
+      
+      out.put((byte)' ');
+      out.put((byte)('0' + best));
+      out.put((byte)' ');
+      int mask = oracle.get_best_mask(key);
+      for(int i = 0; i < 9; i++) {
+         if((mask & (1 << i)) != 0) {
+            out.put((byte)('0' + i));
+         }
+      }
+      out.put((byte)'\n');
+   }
+   
+   private void flush() throws IOException {
+      out.flip();
+      while(out.hasRemaining()) {
+         out_channel.write(out);
+      }
+      out.clear();
+   }
+   
+   // Usage: java BatchQuery < positions.txt > answers.txt
+   // The time and rate go to stderr so they don't get mixed in with the answers.
+   public static void main(String[] args) throws IOException {
+      Oracle oracle = Oracle.load_or_build();
+      
+      FileChannel input = new FileInputStream(FileDescriptor.in).getChannel();
+      FileChannel output = new FileOutputStream(FileDescriptor.out).getChannel();
+      
+      long start = System.nanoTime();
+      long lines = new BatchQuery(oracle, output).run(input);
+      long nanos = System.nanoTime() - start;
+      System.err.printf("%d positions in %d ms (%.0f/sec)%n", lines, nanos / 1000000, lines * 1e9 / Math.max(nanos, 1));
+   }
+
+}
@@ -0,0 +1,156 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// BatchWinEvaluator.java
+// Checks a whole array of boards for wins in one call. Boards are packed the
+// same way as CompactTree and TreeSnapshot (x_mask | o_mask << 9), and each
+// one gets a status: ONGOING, X_WIN, O_WIN or DRAW (a full board with no
+// win). When the JVM was started with --add-modules jdk.incubator.vector, the
+// work is done by VectorWinKernel (in vector/), which checks one board per
+// SIMD lane against all 8 lines at once. Otherwise, or when that class isn't
+// there (like after a plain javac *.java), the scalar loop here is used.
+// *****************************************************************************
+
+import java.util.*;
+
+public class BatchWinEvaluator {
+
+   public static final byte ONGOING = 0;
+   public static final byte X_WIN = 1;
+   public static final byte O_WIN = 2;
+   public static final byte DRAW = 3;
+   
+   // Fills results[from] through results[to - 1] for the boards at the same indexes.
+   public interface Kernel {
+      void evaluate(int[] states, byte[] results, int from, int to);
+   }
+   
+   public static final Kernel SCALAR = new Kernel() {
+      public void evaluate(int[] states, byte[] results, int from, int to) {
+         for(int i = from; i < to; i++) {
+            results[i] = BatchWinEvaluator.evaluate(states[i]);
+         }
+      }
+   };
+   
+   private static final Kernel KERNEL = load_kernel();
+   
+   // The Vector API kernel if it can be loaded, otherwise SCALAR.
+   private static Kernel load_kernel() {
+      try {
+         return (Kernel)Class.forName("VectorWinKernel").getDeclaredConstructor().newInstance();
+      }
+      catch(ReflectiveOperationException | LinkageError e) {
+         // Not compiled in, or jdk.incubator.vector isn't in the module graph.
+         return SCALAR;
+      }
+   }
+   
+   public static boolean is_vectorized() {
+      return KERNEL != SCALAR;
+   }
+   
+   // The status of one packed board.
+   public static byte evaluate(int state) {
+      int x_mask = state & Bitboard.FULL;
+      int o_mask = state >>> 9;
+      if(Bitboard.is_win(x_mask)) {
+         return X_WIN;
+      }
+      if(Bitboard.is_win(o_mask)) {
+         return O_WIN;
+      }
+      return (x_mask | o_mask) == Bitboard.FULL ? DRAW : ONGOING;
+   }
+   
+   // results has to be at least as long as states.
+   public static void evaluate(int[] states, byte[] results) {
+      if(results.length < states.length) {
+         throw new IllegalArgumentException("results is shorter than states: " + results.length + " < " + states.length);
+      }
+      KERNEL.evaluate(states, results, 0, states.length);
+   }
+   
+   // Always the scalar loop, for comparing against.
+   public static void evaluate_scalar(int[] states, byte[] results) {
+      if(results.length < states.length) {
+         throw new IllegalArgumentException("results is shorter than states: " + results.length + " < " + states.length);
+      }
+      SCALAR.evaluate(states, results, 0, states.length);
+   }
+   
+   public static int pack(int x_mask, int o_mask) {
+      return x_mask | (o_mask << 9);
+   }
+   
+   // Usage: java [--add-modules jdk.incubator.vector] BatchWinEvaluator [boards]
+   // Checks that both kernels agree on random positions from random games, then prints boards/sec for each one
+   // and for Node.is_win_loss. Use benchmarks/WinBenchmark.java for proper numbers.
+   public static void main(String[] args) {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+      int[] states = random_states(count, 42);
+      Node[] nodes = new Node[count];
+      for(int i = 0; i < count; i++) {
+         nodes[i] = new Node(states[i] & Bitboard.FULL, states[i] >>> 9, Integer.bitCount(states[i]));
+      }
+      byte[] fast = new byte[count];
+      byte[] slow = new byte[count];
+      
+      evaluate(states, fast);
+      evaluate_scalar(states, slow);
+      if(!Arrays.equals(fast, slow)) {
+         throw new IllegalStateException("The kernels disagree");
+      }
+      System.out.println("kernel: " + (is_vectorized() ? "Vector API (" + KERNEL + ")" : "scalar"));
+      
+      for(int round = 0; round < 3; round++) {
+         long start = System.nanoTime();
+         for(int r = 0; r < 10; r++) {
+            evaluate(states, fast);
+         }
+         long batch_nanos = System.nanoTime() - start;
+         
+         start = System.nanoTime();
+         for(int r = 0; r < 10; r++) {
+            evaluate_scalar(states, slow);
+         }
+         long scalar_nanos = System.nanoTime() - start;
+         
+         start = System.nanoTime();
+         int wins = 0;
+         for(int r = 0; r < 10; r++) {
+            for(int i = 0; i < count; i++) {
+               if(nodes[i].is_win_loss() != null) {
+                  wins++;
+               }
+            }
+         }
+         long node_nanos = System.nanoTime() - start;
+         
+         System.out.printf("batch %.0f M boards/sec, scalar %.0f M boards/sec, Node.is_win_loss %.0f M boards/sec (%d)%n",
+            10.0 * count * 1e3 / batch_nanos, 10.0 * count * 1e3 / scalar_nanos, 10.0 * count * 1e3 / node_nanos, wins);
+      }
+   }
+   
+   // count positions taken from random games (a random number of random moves each, stopping at a win).
+   public static int[] random_states(int count, long seed) {
+      SplittableRandom random = new SplittableRandom(seed);
+      SearchBoard board = new SearchBoard();
+      int[] states = new int[count];
+      for(int i = 0; i < count; i++) {
+         board.set_position(0, 0);
+         int moves = random.nextInt(10);
+         while(board.get_move_count() < moves && !board.is_over()) {
+            int empty = board.get_empty_mask();
+            int pick = random.nextInt(Integer.bitCount(empty));
+            for(int j = 0; j < pick; j++) {
+               empty &= empty - 1;
+            }
+            board.make(Integer.numberOfTrailingZeros(empty));
+         }
+         states[i] = pack(board.get_x_mask(), board.get_o_mask());
+      }
+      return states;
+   }
+
+}
@@ -0,0 +1,93 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Bitboard.java
+// Packed representation of a 3x3 board: one 9-bit mask for the X's and one for
+// the O's. Bit i is square i, using the same subscripts as Node.java:
+// 0 1 2
+// 3 4 5
+// 6 7 8
+// Also has the converters to and from the byte[9] form (1 = X, 2 = O).
+// *****************************************************************************
+
+public class Bitboard {
+
+   // Every square filled.
+   public static final int FULL = 0x1FF;
+   
+   // The 8 ways to get three in a row: 3 columns, 3 rows, and the 2 diagonals. MNKGame.STANDARD uses these
+   // too, so the search engine and the trees can't disagree about who won.
+   public static final int[] LINES = {
+      (1 << 0) | (1 << 3) | (1 << 6),
+      (1 << 1) | (1 << 4) | (1 << 7),
+      (1 << 2) | (1 << 5) | (1 << 8),
+      (1 << 0) | (1 << 1) | (1 << 2),
+      (1 << 3) | (1 << 4) | (1 << 5),
+      (1 << 6) | (1 << 7) | (1 << 8),
+      (1 << 0) | (1 << 4) | (1 << 8),
+      (1 << 2) | (1 << 4) | (1 << 6)
+   };
+   
+   // BASE_3[mask] is the sum of 3^i over the bits i set in mask. Lets encode() turn two masks into
+   // the base-3 key with two lookups instead of a loop.
+   private static final int[] BASE_3 = new int[512];
+   
+   static {
+      for(int mask = 0; mask < 512; mask++) {
+         int power = 1;
+         for(int i = 0; i < 9; i++) {
+            if((mask & (1 << i)) != 0) {
+               BASE_3[mask] += power;
+            }
+            power *= 3;
+         }
+      }
+   }
+   
+   // True if mask has three in a row.
+   public static boolean is_win(int mask) {
+      for(int i = 0; i < LINES.length; i++) {
+         if((mask & LINES[i]) == LINES[i]) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   // The state read as a base-3 number, with square 0 as the lowest digit (same as Node.key_of).
+   public static int encode(int x_mask, int o_mask) {
+      return BASE_3[x_mask] + 2 * BASE_3[o_mask];
+   }
+   
+   public static int x_mask(byte[] state) {
+      return mask_of(state, (byte)1);
+   }
+   
+   public static int o_mask(byte[] state) {
+      return mask_of(state, (byte)2);
+   }
+   
+   private static int mask_of(byte[] state, byte piece) {
+      int mask = 0;
+      for(int i = 0; i < 9; i++) {
+         if(state[i] == piece) {
+            mask |= 1 << i;
+         }
+      }
+      return mask;
+   }
+   
+   public static byte[] to_state(int x_mask, int o_mask) {
+      byte[] state = new byte[9];
+      for(int i = 0; i < 9; i++) {
+         if((x_mask & (1 << i)) != 0) {
+            state[i] = 1;
+         }
+         else if((o_mask & (1 << i)) != 0) {
+            state[i] = 2;
+         }
+      }
+      return state;
+   }
+
+}
@@ -0,0 +1,242 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// CompactTree.java
+// The same game tree as GameTree's PRUNED mode (549,946 nodes: it stops at
+// won games, unlike TREE mode), but stored in flat primitive arrays instead
+// of Node objects. It's a real tree: a position reached by different move
+// orders is a separate node each time. Node i's packed state, value,
+// depth and children are at index i of each array, and each node's children
+// sit next to each other, so walking the tree is just index math. Much less
+// memory and garbage collector work than ~550k Node objects. View gives a
+// read-only Node-like API on top.
+// *****************************************************************************
+
+import java.util.*;
+
+public class CompactTree {
+
+   // Index of the empty board.
+   public static final int ROOT = 0;
+   
+   private static final Node.Values[] VALUES = Node.Values.values();
+   
+   private int size = 0;
+   
+   // states[i] is x_mask | (o_mask << 9) (see Bitboard.java).
+   private int[] states;
+   // Ordinal of the Node.Values, from X's perspective.
+   private byte[] values;
+   private byte[] depths;
+   // Node i's children are first_child[i] through first_child[i] + child_count[i] - 1.
+   private int[] first_child;
+   private byte[] child_count;
+   // Which of node i's children is the best move (0 for the first child, and so on).
+   private byte[] best_child;
+   
+   // Builds the whole tree breadth first and solves it. Like GameTree's PRUNED mode, nothing is generated
+   // past a won game, so this is 549,946 nodes: one per move sequence, not one per position. A position
+   // reached by different move orders shows up once for each of them (there are only 5,478 positions).
+   public CompactTree() {
+      grow(1 << 16);
+      add(0, 0);
+      
+      // Breadth first means every node's children are added in one go, right after the children of the
+      // node before it. The arrays double as the queue.
+      for(int i = 0; i < size; i++) {
+         first_child[i] = size;
+         int x_mask = states[i] & Bitboard.FULL;
+         int o_mask = states[i] >>> 9;
+         if(Bitboard.is_win(x_mask) || Bitboard.is_win(o_mask) || (x_mask | o_mask) == Bitboard.FULL) {
+            continue;
+         }
+         boolean is_X_turn = depths[i] % 2 == 0;
+         for(int j = 0; j < 9; j++) {
+            int square = 1 << j;
+            if(((x_mask | o_mask) & square) == 0) {
+               add(is_X_turn ? x_mask | square : x_mask, is_X_turn ? o_mask : o_mask | square);
+               depths[size - 1] = (byte)(depths[i] + 1);
+               child_count[i]++;
+            }
+         }
+      }
+      grow(size);
+      solve();
+   }
+   
+   private void add(int x_mask, int o_mask) {
+      if(size == states.length) {
+         grow(size * 2);
+      }
+      states[size] = x_mask | (o_mask << 9);
+      size++;
+   }
+   
+   private void grow(int capacity) {
+      states = states == null ? new int[capacity] : Arrays.copyOf(states, capacity);
+      values = values == null ? new byte[capacity] : Arrays.copyOf(values, capacity);
+      depths = depths == null ? new byte[capacity] : Arrays.copyOf(depths, capacity);
+      first_child = first_child == null ? new int[capacity] : Arrays.copyOf(first_child, capacity);
+      child_count = child_count == null ? new byte[capacity] : Arrays.copyOf(child_count, capacity);
+      best_child = best_child == null ? new byte[capacity] : Arrays.copyOf(best_child, capacity);
+   }
+   
+   // Children always come after their parent, so going backwards through the arrays solves every child
+   // before its parent, with no recursion. Picks values and best moves the same way Node.set_value does
+   // (the best move is the first child with the best value).
+   private void solve() {
+      for(int i = size - 1; i >= 0; i--) {
+         if(child_count[i] == 0) {
+            int x_mask = states[i] & Bitboard.FULL;
+            int o_mask = states[i] >>> 9;
+            if(Bitboard.is_win(x_mask)) {
+               values[i] = (byte)Node.Values.WIN.ordinal();
+            }
+            else if(Bitboard.is_win(o_mask)) {
+               values[i] = (byte)Node.Values.LOSS.ordinal();
+            }
+            else {
+               values[i] = (byte)Node.Values.DRAW.ordinal();
+            }
+            continue;
+         }
+         
+         boolean is_X_turn = depths[i] % 2 == 0;
+         int best = first_child[i];
+         for(int c = first_child[i] + 1; c < first_child[i] + child_count[i]; c++) {
+            if(is_X_turn ? values[c] > values[best] : values[c] < values[best]) {
+               best = c;
+            }
+         }
+         values[i] = values[best];
+         best_child[i] = (byte)(best - first_child[i]);
+      }
+   }
+   
+   public int get_size() {
+      return size;
+   }
+   
+   public View get_root() {
+      return new View(ROOT);
+   }
+   
+   // Index-based access, for walking the tree without making any objects.
+   public int get_state(int i) {
+      return states[i];
+   }
+   
+   public Node.Values get_value(int i) {
+      return VALUES[values[i]];
+   }
+   
+   public int get_depth(int i) {
+      return depths[i];
+   }
+   
+   public int get_first_child(int i) {
+      return first_child[i];
+   }
+   
+   public int get_child_count(int i) {
+      return child_count[i];
+   }
+   
+   // Index of node i's best move, or -1 if node i is a leaf.
+   public int get_best_child(int i) {
+      return child_count[i] == 0 ? -1 : first_child[i] + best_child[i];
+   }
+   
+   // A read-only stand-in for Node. It's only an index, so making one is cheap, and any number of them
+   // can point at the same node.
+   public class View {
+   
+      private int index;
+      
+      public View(int node_index) {
+         index = node_index;
+      }
+      
+      public int get_index() {
+         return index;
+      }
+      
+      public Node.Values get_value() {
+         return CompactTree.this.get_value(index);
+      }
+      
+      public int get_depth() {
+         return depths[index];
+      }
+      
+      public boolean is_leaf() {
+         return child_count[index] == 0;
+      }
+      
+      public int get_x_mask() {
+         return states[index] & Bitboard.FULL;
+      }
+      
+      public int get_o_mask() {
+         return states[index] >>> 9;
+      }
+      
+      public byte[] get_state() {
+         return Bitboard.to_state(get_x_mask(), get_o_mask());
+      }
+      
+      public int get_child_count() {
+         return child_count[index];
+      }
+      
+      public View get_child(int i) {
+         return new View(first_child[index] + i);
+      }
+      
+      public View get_best_move() {
+         return is_leaf() ? null : new View(get_best_child(index));
+      }
+      
+      // The square that was filled to get to get_best_move().
+      public int get_best_square() {
+         int changed = states[get_best_child(index)] ^ states[index];
+         return Integer.numberOfTrailingZeros(changed) % 9;
+      }
+      
+      public View get_this_child(byte[] new_state) {
+         int packed = Bitboard.x_mask(new_state) | (Bitboard.o_mask(new_state) << 9);
+         for(int c = first_child[index]; c < first_child[index] + child_count[index]; c++) {
+            if(states[c] == packed) {
+               return new View(c);
+            }
+         }
+         return null;
+      }
+      
+      public void print_board() {
+         new Node(get_x_mask(), get_o_mask(), get_depth()).print_board();
+      }
+   }
+   
+   // Builds this and a PRUNED GameTree, the same shape, and prints how long each took and roughly how much
+   // heap each one uses.
+   public static void main(String[] args) {
+      Runtime runtime = Runtime.getRuntime();
+      
+      System.gc();
+      long before = runtime.totalMemory() - runtime.freeMemory();
+      long start = System.nanoTime();
+      CompactTree compact = new CompactTree();
+      long compact_millis = (System.nanoTime() - start) / 1000000;
+      System.gc();
+      long compact_bytes = runtime.totalMemory() - runtime.freeMemory() - before;
+      System.out.println("CompactTree: " + compact.get_size() + " nodes, " + compact.get_root().get_value() +
+         ", " + compact_millis + " ms, ~" + compact_bytes / 1024 + " KB");
+      
+      SolverStats tree = GameTree.measure(GameTree.BuildMode.PRUNED);
+      long tree_millis = (tree.get_build_nanos() + tree.get_solve_nanos()) / 1000000;
+      System.out.println("GameTree:    " + (tree.get_node_count() + 1) + " nodes (PRUNED), " + tree_millis +
+         " ms, ~" + tree.get_heap_bytes() / 1024 + " KB");
+   }
+
+}
@@ -0,0 +1,251 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// GameLogAnalyzer.java
+// Grades recorded games against perfect play. The log has one game per line,
+// written as the squares played in order (like 40816237; spaces, commas and
+// dashes between moves are ignored). Every move is checked against the solved
+// tree through the Oracle: a move is optimal if it keeps the value, and a
+// blunder if it makes things worse for the player who made it.
+// The file is memory-mapped and split into chunks that are graded in
+// parallel, a few at a time, so memory stays the same no matter how big the
+// file is. With --per-game, one line per game is written (in file order):
+//    <moves> <accuracy> X <optimal>/<moves> <blunders> O <optimal>/<moves> <blunders>
+// Totals per player are printed at the end. Uses Oracle.java (from the
+// snapshot file when there is one) and GameTree.java.
+// *****************************************************************************
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class GameLogAnalyzer {
+
+   // How much of the file each task grades.
+   private static final long CHUNK_SIZE = 8L << 20;
+   
+   // How far past the end of its chunk a task may read to finish its last line. A real game is at most
+   // 9 moves, so anything longer than this is junk anyway.
+   private static final int MAX_LINE = 4096;
+   
+   private Oracle oracle;
+   private int threads;
+   private boolean per_game;
+   
+   // Totals for one chunk, or for the whole file once the chunks are added up.
+   public static class Totals {
+      public long games = 0;
+      public long invalid = 0;
+      // Index 0 is X, 1 is O.
+      public long[] moves = new long[2];
+      public long[] optimal = new long[2];
+      public long[] blunders = new long[2];
+      
+      public void add(Totals other) {
+         games += other.games;
+         invalid += other.invalid;
+         for(int p = 0; p < 2; p++) {
+            moves[p] += other.moves[p];
+            optimal[p] += other.optimal[p];
+            blunders[p] += other.blunders[p];
+         }
+      }
+      
+      public double get_accuracy(int player) {
+         return moves[player] == 0 ? 0 : 100.0 * optimal[player] / moves[player];
+      }
+   }
+   
+   // What a chunk hands back: its totals, and the per-game lines if those were asked for.
+   private static class ChunkResult {
+      Totals totals = new Totals();
+      ByteArrayOutputStream lines = new ByteArrayOutputStream();
+   }
+   
+   public GameLogAnalyzer(Oracle new_oracle, int thread_count, boolean write_per_game) {
+      oracle = new_oracle;
+      threads = thread_count;
+      per_game = write_per_game;
+   }
+   
+   // Grades every game in file. Per-game lines (if turned on) go to out as they're ready.
+   public Totals analyze(Path file, OutputStream out) throws IOException, InterruptedException {
+      Totals totals = new Totals();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         
+         // Only threads * 2 chunks are in flight at once, and they're written out in order as they finish.
+         ArrayDeque<Future<ChunkResult>> in_flight = new ArrayDeque<Future<ChunkResult>>();
+         for(long start = 0; start < size || !in_flight.isEmpty(); ) {
+            while(start < size && in_flight.size() < threads * 2) {
+               in_flight.add(pool.submit(new ChunkTask(channel, start, Math.min(start + CHUNK_SIZE, size), size)));
+               start += CHUNK_SIZE;
+            }
+            try {
+               ChunkResult result = in_flight.poll().get();
+               totals.add(result.totals);
+               result.lines.writeTo(out);
+            }
+            catch(ExecutionException e) {
+               throw new IOException(e.getCause());
+            }
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+      out.flush();
+      return totals;
+   }
+   
+   // Grades every line that starts in [start, end). A line that started in the chunk before is skipped, since
+   // that chunk's task reads past its own end to finish it.
+   private class ChunkTask implements Callable<ChunkResult> {
+   
+      private FileChannel channel;
+      private long start;
+      private long end;
+      private long file_size;
+      
+      public ChunkTask(FileChannel new_channel, long chunk_start, long chunk_end, long size) {
+         channel = new_channel;
+         start = chunk_start;
+         end = chunk_end;
+         file_size = size;
+      }
+      
+      public ChunkResult call() throws IOException {
+         ChunkResult result = new ChunkResult();
+         
+         // Map one byte early (to see whether the chunk starts at a line) and a little late (to finish the last line).
+         long map_start = Math.max(0, start - 1);
+         long map_end = Math.min(file_size, end + MAX_LINE);
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, map_start, map_end - map_start);
+         
+         int position = (int)(start - map_start);
+         int limit = (int)(end - map_start);
+         if(start > 0 && buffer.get(position - 1) != '\n') {
+            while(position < buffer.limit() && buffer.get(position) != '\n') {
+               position++;
+            }
+            position++;
+         }
+         
+         while(position < limit) {
+            int line_end = position;
+            while(line_end < buffer.limit() && buffer.get(line_end) != '\n') {
+               line_end++;
+            }
+            grade(buffer, position, line_end, result);
+            position = line_end + 1;
+         }
+         return result;
+      }
+   }
+   
+   // Grades one game, the bytes from first to last (not including last).
+   private void grade(MappedByteBuffer buffer, int first, int last, ChunkResult result) {
+      int x_mask = 0;
+      int o_mask = 0;
+      int[] moves = new int[2];
+      int[] optimal = new int[2];
+      int[] blunders = new int[2];
+      boolean valid = true;
+      boolean empty = true;
+      
+      for(int i = first; i < last && valid; i++) {
+         byte c = buffer.get(i);
+         if(c == ' ' || c == ',' || c == '-' || c == '\t' || c == '\r') {
+            continue;
+         }
+         empty = false;
+         int square = c - '0';
+         int key = Bitboard.encode(x_mask, o_mask);
+         if(square < 0 || square > 8 || ((x_mask | o_mask) & (1 << square)) != 0 || oracle.get_best_square(key) == -1) {
+            valid = false;
+            break;
+         }
+         
+         int player = Integer.bitCount(x_mask) == Integer.bitCount(o_mask) ? 0 : 1;
+         Node.Values before = oracle.get_value(key);
+         if(player == 0) {
+            x_mask |= 1 << square;
+         }
+         else {
+            o_mask |= 1 << square;
+         }
+         Node.Values after = oracle.get_value(x_mask, o_mask);
+         
+         moves[player]++;
+         if(after == before) {
+            optimal[player]++;
+         }
+         else if(player == 0 ? after.compareTo(before) < 0 : after.compareTo(before) > 0) {
+            blunders[player]++;
+         }
+      }
+      
+      if(empty) {
+         return;
+      }
+      
+      result.totals.games++;
+      if(!valid) {
+         result.totals.invalid++;
+      }
+      else {
+         for(int p = 0; p < 2; p++) {
+            result.totals.moves[p] += moves[p];
+            result.totals.optimal[p] += optimal[p];
+            result.totals.blunders[p] += blunders[p];
+         }
+      }
+      
+      if(per_game) {
+         byte[] game = new byte[last - first];
+         for(int i = first; i < last; i++) {
+            game[i - first] = buffer.get(i);
+         }
+         String text = new String(game, StandardCharsets.US_ASCII).trim();
+         if(!valid) {
+            text += " INVALID\n";
+         }
+         else {
+            int total = moves[0] + moves[1];
+            double accuracy = total == 0 ? 100 : 100.0 * (optimal[0] + optimal[1]) / total;
+            text += String.format(" %.1f%% X %d/%d %d O %d/%d %d%n", accuracy, optimal[0], moves[0], blunders[0],
+               optimal[1], moves[1], blunders[1]);
+         }
+         result.lines.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+      }
+   }
+   
+   // Usage: java GameLogAnalyzer <log file> [--per-game]
+   public static void main(String[] args) throws IOException, InterruptedException {
+      if(args.length < 1) {
+         System.out.println("Usage: java GameLogAnalyzer <log file> [--per-game]");
+         return;
+      }
+      boolean per_game = args.length > 1 && args[1].equals("--per-game");
+      
+      GameLogAnalyzer analyzer = new GameLogAnalyzer(Oracle.load_or_build(), Runtime.getRuntime().availableProcessors(), per_game);
+      
+      long start = System.nanoTime();
+      Totals totals = analyzer.analyze(Paths.get(args[0]), new BufferedOutputStream(System.out, 1 << 16));
+      long millis = (System.nanoTime() - start) / 1000000;
+      
+      System.out.println("games:   " + totals.games + " (" + totals.invalid + " invalid)");
+      String[] names = {"X", "O"};
+      for(int p = 0; p < 2; p++) {
+         System.out.printf("%s: %d moves, %d optimal (%.2f%%), %d blunders%n", names[p], totals.moves[p],
+            totals.optimal[p], totals.get_accuracy(p), totals.blunders[p]);
+      }
+      System.out.println("time:    " + millis + " ms");
+   }
+
+}
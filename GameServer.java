@@ -0,0 +1,391 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// GameServer.java
+// Hosts lots of games at once over a line protocol on a local TCP socket.
+// Every session walks the same solved tree, and nothing changes it while the
+// server runs, so a new game costs nothing but a connection. The tree is the
+// snapshot file when there is one (see TreeSnapshot.java), so the server is
+// up in milliseconds; otherwise a GameTree is built and solved at startup.
+// Each connection gets its own virtual thread (Java 21+), or a thread from a
+// cached pool on older JVMs.
+//
+// The client plays against the computer. Commands, one per line:
+//    NEW [X|O] [optimal|mixed]   start a game (defaults: you're X, optimal)
+//    MOVE <square>               fill a square (0 to 8)
+//    HINT                        ask for the best move
+//    QUIT                        close the connection
+// Replies, one line each:
+//    OK <board>                  your move (after the computer's, if it had one)
+//    END <board> <X|O|DRAW>      the game is over, and who won
+//    HINT <square> <WIN|LOSS|DRAW>
+//    ERR <reason>
+//    BYE
+// A board is 9 characters, square 0 first, each one X, O or '.'.
+// The server keeps track of the time spent answering each move (latency) and
+// how many sessions it has served. Uses GameTree.java, Node.java and
+// TreeSnapshot.java.
+// *****************************************************************************
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongBinaryOperator;
+
+public class GameServer {
+
+   public static final int DEFAULT_PORT = 3939;
+   
+   private SolvedPosition root;
+   private ServerSocket server;
+   private ExecutorService pool;
+   private long start_nanos;
+   
+   private LongAdder sessions = new LongAdder();
+   private LongAdder games = new LongAdder();
+   private LongAdder moves = new LongAdder();
+   private LongAdder move_nanos = new LongAdder();
+   private LongAccumulator max_move_nanos = new LongAccumulator(new LongBinaryOperator() {
+      public long applyAsLong(long a, long b) {
+         return Math.max(a, b);
+      }
+   }, 0);
+   // latencies[b] is how many moves took less than 2^b nanoseconds (and at least 2^(b - 1)).
+   private LongAdder[] latencies = new LongAdder[64];
+   
+   // tree has to be solved already, and nothing may change it while the server is running. port 0 picks any
+   // free port (see get_port()). Only TREE, TRANSPOSITION and PARALLEL trees are allowed, for the same reasons
+   // as in Simulator: a SYMMETRY tree has no child for most moves a client can make, and PRUNED and LAZY trees
+   // change as they're played through, which isn't safe with several sessions at once.
+   public GameServer(GameTree tree, int port) throws IOException {
+      this(Simulator.checked_root(tree), port);
+   }
+   
+   public GameServer(TreeSnapshot snapshot, int port) throws IOException {
+      this(snapshot.get_root(), port);
+   }
+   
+   private GameServer(SolvedPosition new_root, int port) throws IOException {
+      root = new_root;
+      for(int b = 0; b < latencies.length; b++) {
+         latencies[b] = new LongAdder();
+      }
+      server = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+      pool = virtual_or_cached_pool();
+   }
+   
+   // A thread that's waiting on its socket shouldn't hold up anyone else, so the fallback has to grow
+   // instead of being a fixed pool.
+   private static ExecutorService virtual_or_cached_pool() {
+      ExecutorService virtual = Simulator.virtual_thread_pool();
+      return virtual != null ? virtual : Executors.newCachedThreadPool();
+   }
+   
+   public int get_port() {
+      return server.getLocalPort();
+   }
+   
+   // Accepts connections on a thread of its own until stop() is called.
+   public void start() {
+      start_nanos = System.nanoTime();
+      Thread acceptor = new Thread(new Runnable() {
+         public void run() {
+            try {
+               while(true) {
+                  final Socket socket = server.accept();
+                  pool.execute(new Runnable() {
+                     public void run() {
+                        serve(socket);
+                     }
+                  });
+               }
+            }
+            catch(IOException e) {
+               // stop() closed the socket.
+            }
+         }
+      }, "GameServer-accept");
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+   
+   public void stop() throws IOException {
+      server.close();
+      pool.shutdownNow();
+   }
+   
+   // One connection, from start to finish.
+   private void serve(Socket socket) {
+      sessions.increment();
+      try(socket;
+          BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+          PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+             StandardCharsets.US_ASCII)))) {
+         socket.setTcpNoDelay(true);
+         Session session = new Session();
+         String line;
+         while((line = in.readLine()) != null) {
+            long start = System.nanoTime();
+            String reply = session.handle(line.trim());
+            out.println(reply);
+            out.flush();
+            if(session.counts_as_move) {
+               record_move(System.nanoTime() - start);
+            }
+            if(reply.equals("BYE")) {
+               break;
+            }
+         }
+      }
+      catch(IOException e) {
+         // The client went away. Nothing is kept per session, so there's nothing to clean up.
+      }
+   }
+   
+   private void record_move(long nanos) {
+      moves.increment();
+      move_nanos.add(nanos);
+      max_move_nanos.accumulate(nanos);
+      latencies[64 - Long.numberOfLeadingZeros(nanos)].increment();
+   }
+   
+   // Everything one game needs. Only the thread serving its connection ever touches it.
+   private class Session {
+   
+      private SolvedPosition current = null;
+      private boolean human_is_X = true;
+      private boolean mixed = false;
+      // Set by handle() when the command was a move, so its time goes in the latency numbers.
+      private boolean counts_as_move = false;
+      
+      public String handle(String line) {
+         counts_as_move = false;
+         String[] words = line.split("\\s+");
+         String command = words[0].toUpperCase();
+         
+         if(command.equals("NEW")) {
+            human_is_X = true;
+            mixed = false;
+            for(int i = 1; i < words.length; i++) {
+               String word = words[i].toUpperCase();
+               if(word.equals("X") || word.equals("O")) {
+                  human_is_X = word.equals("X");
+               }
+               else if(word.equals("OPTIMAL") || word.equals("MIXED")) {
+                  mixed = word.equals("MIXED");
+               }
+               else {
+                  return "ERR unknown option " + words[i];
+               }
+            }
+            games.increment();
+            current = root;
+            if(!human_is_X) {
+               current = computer_move(current);
+            }
+            return reply();
+         }
+         
+         else if(command.equals("MOVE")) {
+            if(current == null || current.is_leaf()) {
+               return "ERR no game in progress";
+            }
+            if(words.length != 2) {
+               return "ERR usage: MOVE <square>";
+            }
+            int square;
+            try {
+               square = Integer.parseInt(words[1]);
+            }
+            catch(NumberFormatException e) {
+               return "ERR not a square: " + words[1];
+            }
+            if(square < 0 || square > 8) {
+               return "ERR out of bounds";
+            }
+            byte[] new_state = current.get_state();
+            if(new_state[square] != 0) {
+               return "ERR already filled";
+            }
+            
+            new_state[square] = (byte)(human_is_X ? 1 : 2);
+            SolvedPosition next = current.get_this_child(new_state);
+            if(next == null) {
+               return "ERR not a move in this tree";
+            }
+            
+            counts_as_move = true;
+            current = next;
+            if(!current.is_leaf()) {
+               current = computer_move(current);
+            }
+            return reply();
+         }
+         
+         else if(command.equals("HINT")) {
+            if(current == null || current.is_leaf()) {
+               return "ERR no game in progress";
+            }
+            return "HINT " + current.get_best_square() + " " + current.get_value();
+         }
+         
+         else if(command.equals("QUIT")) {
+            return "BYE";
+         }
+         
+         return "ERR unknown command " + words[0];
+      }
+      
+      private SolvedPosition computer_move(SolvedPosition from) {
+         return mixed ? from.get_mixed_best_move() : from.get_best_move();
+      }
+      
+      private String reply() {
+         String board = board_string(current);
+         if(!current.is_leaf()) {
+            return "OK " + board;
+         }
+         Node.Values value = current.get_value();
+         return "END " + board + " " + (value == Node.Values.WIN ? "X" : value == Node.Values.LOSS ? "O" : "DRAW");
+      }
+   }
+   
+   private static String board_string(SolvedPosition position) {
+      char[] board = new char[9];
+      for(int i = 0; i < 9; i++) {
+         board[i] = (position.get_x_mask() & (1 << i)) != 0 ? 'X' : (position.get_o_mask() & (1 << i)) != 0 ? 'O' : '.';
+      }
+      return new String(board);
+   }
+   
+   public long get_sessions() {
+      return sessions.sum();
+   }
+   
+   public long get_games() {
+      return games.sum();
+   }
+   
+   public long get_moves() {
+      return moves.sum();
+   }
+   
+   // Roughly: the upper end of the power-of-two bucket the given fraction of moves fall under.
+   public long get_latency_percentile(double fraction) {
+      long total = get_moves();
+      long seen = 0;
+      for(int b = 0; b < latencies.length; b++) {
+         seen += latencies[b].sum();
+         if(total > 0 && seen >= fraction * total) {
+            return 1L << b;
+         }
+      }
+      return 0;
+   }
+   
+   public void print_report() {
+      double seconds = (System.nanoTime() - start_nanos) / 1e9;
+      long move_count = get_moves();
+      System.out.println("sessions:     " + get_sessions() + String.format(" (%.0f/sec)", get_sessions() / seconds));
+      System.out.println("games:        " + get_games() + String.format(" (%.0f/sec)", get_games() / seconds));
+      System.out.println("moves:        " + move_count);
+      if(move_count > 0) {
+         System.out.printf("move latency: avg %.1f us, p50 < %.1f us, p99 < %.1f us, max %.1f us%n",
+            move_nanos.sum() / 1e3 / move_count, get_latency_percentile(0.5) / 1e3, get_latency_percentile(0.99) / 1e3,
+            max_move_nanos.get() / 1e3);
+      }
+   }
+   
+   // Opens clients connections at once, and each one plays games games of random moves (as X) against the
+   // server. Returns how many games finished.
+   public static long load_test(int port, int clients, final int games) throws InterruptedException {
+      ExecutorService client_pool = virtual_or_cached_pool();
+      final LongAdder finished = new LongAdder();
+      for(int c = 0; c < clients; c++) {
+         client_pool.execute(new Runnable() {
+            public void run() {
+               try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                   BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                      StandardCharsets.US_ASCII));
+                   PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                      StandardCharsets.US_ASCII)))) {
+                  socket.setTcpNoDelay(true);
+                  for(int g = 0; g < games; g++) {
+                     out.println("NEW X mixed");
+                     out.flush();
+                     String reply = in.readLine();
+                     while(reply.startsWith("OK")) {
+                        String board = reply.substring(3);
+                        int square;
+                        do {
+                           square = ThreadLocalRandom.current().nextInt(9);
+                        } while(board.charAt(square) != '.');
+                        out.println("MOVE " + square);
+                        out.flush();
+                        reply = in.readLine();
+                     }
+                     if(!reply.startsWith("END")) {
+                        throw new IllegalStateException("Unexpected reply: " + reply);
+                     }
+                     finished.increment();
+                  }
+                  out.println("QUIT");
+                  out.flush();
+                  in.readLine();
+               }
+               catch(IOException e) {
+                  System.out.println("client failed: " + e);
+               }
+            }
+         });
+      }
+      client_pool.shutdown();
+      client_pool.awaitTermination(1, TimeUnit.HOURS);
+      return finished.sum();
+   }
+   
+   // On the snapshot file if there's a good one, otherwise on a newly solved TRANSPOSITION tree.
+   private static GameServer open(int port) throws IOException {
+      TreeSnapshot snapshot = TreeSnapshot.load_if_present(Paths.get(TreeSnapshot.DEFAULT_FILE));
+      if(snapshot != null) {
+         return new GameServer(snapshot, port);
+      }
+      GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+      tree.init_values();
+      return new GameServer(tree, port);
+   }
+   
+   // Usage: java GameServer [port]
+   //        java GameServer --load [clients [games per client]]
+   // The first serves until it's killed, printing a report every 10 seconds. The second starts a server on a
+   // free port, plays against it from clients connections at once (1000 clients, 20 games each by default),
+   // and prints the report.
+   public static void main(String[] args) throws Exception {
+      if(args.length > 0 && args[0].equals("--load")) {
+         int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+         int games = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+         GameServer server = open(0);
+         server.start();
+         long start = System.nanoTime();
+         long finished = load_test(server.get_port(), clients, games);
+         System.out.printf("%d clients finished %d games in %.1f ms%n", clients, finished, (System.nanoTime() - start) / 1e6);
+         server.print_report();
+         server.stop();
+         return;
+      }
+      
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+      final GameServer server = open(port);
+      server.start();
+      System.out.println("listening on " + server.get_port());
+      while(true) {
+         Thread.sleep(10000);
+         server.print_report();
+      }
+   }
+
+}
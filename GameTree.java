@@ -7,30 +7,171 @@
 // ************************************************************************************
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class GameTree {
 
+   // How the tree is built.
+   // TREE makes a new Node for every sequence of moves, so the same position shows up many times.
+   // TRANSPOSITION makes one Node per position and shares it between every move order that reaches
+   // it, so the "tree" is really a DAG of the 5,478 legal positions. Positions past a win are not
+   // legal, so nothing is generated under a leaf in this mode.
+   // SYMMETRY is like TRANSPOSITION, but every position is stored in its canonical form (see Symmetry.java),
+   // so rotations and reflections of a position share one Node. That leaves 765 positions to solve.
+   // Since those nodes may be turned around from the caller's board, use get_best_move(byte[]) and
+   // get_mixed_best_move(byte[]) below to get moves back in the caller's orientation.
+   // PARALLEL builds and solves the same tree as TREE, but on a ForkJoinPool. Every node shallower than
+   // the cutoff depth gets its children built and solved as separate tasks; below that it's sequential.
+   // LAZY builds nothing up front. Nodes make and solve their children the first time they're asked for, and
+   // a NodeCache keeps memory bounded by throwing away the least recently used ones (see NodeCache.java).
+   // Only one thread at a time should use a LAZY tree.
+   // PRUNED is a tree like TREE, but stops at won games, puts the center first, then corners, then edges, and
+   // solves with alpha-beta pruning (see Node.set_value_pruned). Only the solve is pruned: every legal move
+   // sequence still gets a Node, 549,945 of them plus the root. Nodes the search never needed stay unsolved
+   // until someone gets to them; get_best_move(byte[]) and TicTacToe.play solve them on the spot, and
+   // Node.get_mixed_best_move solves a node's cut-off children the first time it needs all of its best moves.
+   public enum BuildMode {
+      TREE,
+      TRANSPOSITION,
+      SYMMETRY,
+      PARALLEL,
+      LAZY,
+      PRUNED
+   }
+   
+   // The order PRUNED mode tries squares in. The center is in 4 lines, corners in 3, and edges in 2, so
+   // better moves tend to come first and the cutoffs come sooner.
+   private static final int[] MOVE_ORDER = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+   
+   // Default size limit for LAZY mode, in nodes.
+   public static final int DEFAULT_CACHE_NODES = 50000;
+   
+   // Default cutoff for PARALLEL mode. Depth 2 makes 72 tasks, plenty to keep every core busy.
+   public static final int DEFAULT_PARALLEL_CUTOFF = 2;
+
    // The state at the beginning of the tree is a blank board. The
    // depth of the root node is 0.
    private Node root = new Node(new byte[9], 0);
    
-   // These may not be helpful.
+   private BuildMode mode;
+   
+   // Every position generated so far, keyed by Node.get_key(). Only used in TRANSPOSITION and SYMMETRY mode.
+   private HashMap<Integer, Node> table;
+   
+   // Only used in PARALLEL mode.
+   private int parallel_cutoff;
+   
+   // leaf_count and loss_count are filled in the first time one of them is asked for. See get_stats() for
+   // everything else.
    private int leaf_count = 0;
    private int node_count = 0;
    private int loss_count = 0;
+   private boolean leaves_counted = false;
+   
+   private long build_nanos = 0;
+   private long solve_nanos = 0;
+   // Worked out once at the end of build(). A LAZY tree asks its NodeCache instead, since it keeps growing.
+   private int peak_depth = 0;
 
    // The constructor. Calls the recursive helper method generate_tree. Once it's finished,
    // GameTree should hold the entire game tree, referenceable from root.
    public GameTree() {
-      generate_tree(root, true);
+      this(BuildMode.TREE);
+   }
+   
+   public GameTree(BuildMode build_mode) {
+      this(build_mode, DEFAULT_PARALLEL_CUTOFF);
+   }
+   
+   // A LAZY tree that keeps at most cache.get_max_nodes() nodes at once. (GameTree(BuildMode.LAZY) uses a
+   // cache of DEFAULT_CACHE_NODES.)
+   public GameTree(NodeCache cache) {
+      mode = BuildMode.LAZY;
+      build(cache);
+   }
+   
+   // cutoff_depth only matters in PARALLEL mode. Nodes shallower than it are split into parallel tasks.
+   public GameTree(BuildMode build_mode, int cutoff_depth) {
+      mode = build_mode;
+      parallel_cutoff = cutoff_depth;
+      build(mode == BuildMode.LAZY ? new NodeCache(DEFAULT_CACHE_NODES) : null);
+   }
+   
+   // Builds the tree the way mode says to, keeping track of how long it took, and reports it to Flight
+   // Recorder. cache is only used in LAZY mode. The heap isn't measured here (see measure()).
+   private void build(NodeCache cache) {
+      SolverEvents.Build event = new SolverEvents.Build();
+      event.begin();
+      long start = System.nanoTime();
+      
+      if(mode == BuildMode.TRANSPOSITION) {
+         table = new HashMap<Integer, Node>();
+         table.put(root.get_key(), root);
+         generate_dag(root, true);
+      }
+      else if(mode == BuildMode.SYMMETRY) {
+         table = new HashMap<Integer, Node>();
+         table.put(root.get_key(), root);
+         generate_canonical(root, true);
+      }
+      else if(mode == BuildMode.LAZY) {
+         root.set_cache(cache);
+         cache.solve(root);
+      }
+      else if(mode == BuildMode.PARALLEL) {
+         node_count = ForkJoinPool.commonPool().invoke(new BuildTask(root, true, parallel_cutoff));
+      }
+      else if(mode == BuildMode.PRUNED) {
+         node_count = generate_pruned(root, true);
+      }
+      else {
+         node_count = generate_tree(root, true);
+      }
+      
+      build_nanos = System.nanoTime() - start;
+      event.mode = mode.name();
+      event.nodes = node_count;
+      event.commit();
+      
+      if(table != null) {
+         for(Node node : table.values()) {
+            peak_depth = Math.max(peak_depth, node.get_depth());
+         }
+      }
+      else if(mode != BuildMode.LAZY) {
+         peak_depth = deepest(root);
+      }
+   }
+   
+   // Builds and solves a tree of the given mode and returns its stats with the heap filled in: how much more
+   // heap was in use afterwards than before, collecting garbage just before and just after so it's only what
+   // the tree holds on to. The collections stop the world, so this is for measuring, not for playing.
+   public static SolverStats measure(BuildMode build_mode) {
+      System.gc();
+      long heap_before = used_heap();
+      GameTree tree = new GameTree(build_mode);
+      tree.init_values();
+      System.gc();
+      // tree is still used below, so it can't be collected before the second measurement.
+      return tree.get_stats(Math.max(0, used_heap() - heap_before));
+   }
+   
+   private static long used_heap() {
+      Runtime runtime = Runtime.getRuntime();
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+   
+   public BuildMode get_mode() {
+      return mode;
    }
    
    public Node get_root() {
       return root;
    }
    
+   // Counts once, then gives the same answer every time. The values have to be set (init_values()) first.
    public int get_leaf_count() {
-      count_leaves(root);
+      count_leaves_once();
       return leaf_count;
    }
    
@@ -39,66 +180,355 @@ public class GameTree {
    }
    
    public int get_loss_count() {
+      count_leaves_once();
       return loss_count;
-   }   
+   }
+   
+   private void count_leaves_once() {
+      if(!leaves_counted) {
+         leaf_count = 0;
+         loss_count = 0;
+         count_leaves(root);
+         leaves_counted = true;
+      }
+   }
+   
+   // Counts and timings for this tree. The leaf counts are -1 until init_values() has been called, and the
+   // heap is -1 (not measured) unless the stats came from measure().
+   public SolverStats get_stats() {
+      return get_stats(-1);
+   }
+   
+   private SolverStats get_stats(long heap_bytes) {
+      boolean solved = root.get_value() != null && (mode != BuildMode.LAZY);
+      return new SolverStats(mode, node_count, solved ? get_leaf_count() : -1, solved ? get_loss_count() : -1,
+         mode == BuildMode.LAZY ? root.get_cache().get_peak_depth() : peak_depth, build_nanos, solve_nanos, heap_bytes);
+   }
+   
+   // Deepest node under current, in a tree with no shared nodes (the others have table to look through).
+   private static int deepest(Node current) {
+      int deepest = current.get_depth();
+      for(int i = 0; i < current.get_children().size(); i++) {
+         deepest = Math.max(deepest, deepest(current.get_children().get(i)));
+      }
+      return deepest;
+   }
    
    // NOTE: This method generates the ENTIRE tree without taking all ending positions into account.
    // If one player wins the game before the whole board is covered, this doesn't notice and continues to
    // generate possible moves past that. This should only serve as a building block.
-   private void generate_tree(Node current, boolean is_X_turn) {
+   // Returns how many nodes it made, not counting current.
+   private static int generate_tree(Node current, boolean is_X_turn) {
    
-         if(is_X_turn) {
-         
-            byte[] current_state = current.get_state().clone();
-            byte[] new_state = current_state.clone();
+      int count = 0;
+      for(int i = 0; i < 9; i++) {
+         Node new_node = make_child(current, i, is_X_turn);
+         if(new_node != null) {
+            count += 1 + generate_tree(new_node, !is_X_turn);
+            current.add_child(new_node, i);
+         }
+      }
+      return count;
+   
+   }
+   
+   // Same as generate_tree, but stops at leaves and adds the children in MOVE_ORDER.
+   private static int generate_pruned(Node current, boolean is_X_turn) {
+   
+      if(current.is_leaf()) {
+         return 0;
+      }
+      
+      int count = 0;
+      for(int j = 0; j < MOVE_ORDER.length; j++) {
+         Node new_node = make_child(current, MOVE_ORDER[j], is_X_turn);
+         if(new_node != null) {
+            count += 1 + generate_pruned(new_node, !is_X_turn);
+            current.add_child(new_node, MOVE_ORDER[j]);
+         }
+      }
+      return count;
+   
+   }
+   
+   // The node for filling square i from current, or null if that square is already filled.
+   private static Node make_child(Node current, int i, boolean is_X_turn) {
+      int x_mask = current.get_x_mask();
+      int o_mask = current.get_o_mask();
+      int square = 1 << i;
+      if(((x_mask | o_mask) & square) != 0) {
+         return null;
+      }
+      else if(is_X_turn) {
+         return new Node(x_mask | square, o_mask, current.get_depth() + 1);
+      }
+      else {
+         return new Node(x_mask, o_mask | square, current.get_depth() + 1);
+      }
+   }
+   
+   // Builds the subtree under one node for PARALLEL mode. Each task only ever touches its own node and the
+   // children it makes, and hands its node count back through join(), so nothing is shared between threads.
+   private static class BuildTask extends RecursiveTask<Integer> {
+   
+      private static final long serialVersionUID = 1L;
+      
+      private Node current;
+      private boolean is_X_turn;
+      private int cutoff;
+      
+      public BuildTask(Node new_current, boolean X_turn, int cutoff_depth) {
+         current = new_current;
+         is_X_turn = X_turn;
+         cutoff = cutoff_depth;
+      }
+      
+      protected Integer compute() {
+         if(current.get_depth() >= cutoff) {
+            return generate_tree(current, is_X_turn);
+         }
          
-            for(int i = 0; i < 9; i++) {
-               if(current_state[i] == 0) {
-               
-                  new_state[i] = 1;
-                  
-                  Node new_node = new Node(new_state, current.get_depth() + 1);
-                  node_count++;
-                  generate_tree(new_node, false);
-                  current.add_child(new_node);
-                  
-                  // reset the change to new_state
-                  new_state = current_state.clone();
-               }
+         ArrayList<Node> new_nodes = new ArrayList<Node>();
+         ArrayList<Integer> squares = new ArrayList<Integer>();
+         ArrayList<BuildTask> tasks = new ArrayList<BuildTask>();
+         for(int i = 0; i < 9; i++) {
+            Node new_node = make_child(current, i, is_X_turn);
+            if(new_node != null) {
+               new_nodes.add(new_node);
+               squares.add(i);
+               tasks.add(new BuildTask(new_node, !is_X_turn, cutoff));
             }
          }
-         else {
+         invokeAll(tasks);
          
-            byte[] current_state = current.get_state().clone();
-            byte[] new_state = current_state.clone();
+         // Children get linked in the same order generate_tree would, so the trees come out identical.
+         int count = 0;
+         for(int i = 0; i < new_nodes.size(); i++) {
+            count += 1 + tasks.get(i).join();
+            current.add_child(new_nodes.get(i), squares.get(i));
+         }
+         return count;
+      }
+   }
+   
+   // Solves the subtree under one node for PARALLEL mode. The children are solved as separate tasks, and
+   // once they're all done this node picks its value from theirs, the same way Node.set_value does.
+   private static class SolveTask extends RecursiveAction {
+   
+      private static final long serialVersionUID = 1L;
+      
+      private Node current;
+      private int cutoff;
+      
+      public SolveTask(Node new_current, int cutoff_depth) {
+         current = new_current;
+         cutoff = cutoff_depth;
+      }
+      
+      protected void compute() {
+         if(current.get_depth() >= cutoff || current.is_leaf()) {
+            current.set_value();
+            return;
+         }
          
-            for(int j = 0; j < 9; j++) {
-               if(current_state[j] == 0) {
-               
-                  new_state[j] = 2;
-                  
-                  Node new_node = new Node(new_state, current.get_depth() + 1);
-                  node_count++;
-                  generate_tree(new_node, true);
-                  current.add_child(new_node);
-                  
-                  // reset the change to new_state
-                  new_state = current_state.clone();
-               }
+         ArrayList<SolveTask> tasks = new ArrayList<SolveTask>();
+         for(int i = 0; i < current.get_children().size(); i++) {
+            tasks.add(new SolveTask(current.get_children().get(i), cutoff));
+         }
+         invokeAll(tasks);
+         current.set_value_from_children();
+      }
+   }
+   
+   // Same idea as generate_tree, but before making a new Node it checks the table for one with the same
+   // state. If there is one, it just gets linked in as another child, and its subtree isn't generated again.
+   private void generate_dag(Node current, boolean is_X_turn) {
+   
+      if(current.is_leaf()) {
+         return;
+      }
+      
+      int x_mask = current.get_x_mask();
+      int o_mask = current.get_o_mask();
+      
+      for(int i = 0; i < 9; i++) {
+         int square = 1 << i;
+         if(((x_mask | o_mask) & square) == 0) {
+         
+            int new_x = is_X_turn ? x_mask | square : x_mask;
+            int new_o = is_X_turn ? o_mask : o_mask | square;
+            
+            Node new_node = table.get(Bitboard.encode(new_x, new_o));
+            if(new_node == null) {
+               new_node = new Node(new_x, new_o, current.get_depth() + 1);
+               table.put(new_node.get_key(), new_node);
+               node_count++;
+               generate_dag(new_node, !is_X_turn);
             }
+            current.add_child(new_node, i);
+         }
+      }
+   
+   }
+   
+   // Same as generate_dag, but the table is keyed by the canonical form of each state. Two moves that
+   // lead to symmetric positions (like any two corners on the first move) only add one child.
+   private void generate_canonical(Node current, boolean is_X_turn) {
+   
+      if(current.is_leaf()) {
+         return;
+      }
+      
+      int x_mask = current.get_x_mask();
+      int o_mask = current.get_o_mask();
+      
+      for(int i = 0; i < 9; i++) {
+         int square = 1 << i;
+         if(((x_mask | o_mask) & square) == 0) {
          
+            int new_x = is_X_turn ? x_mask | square : x_mask;
+            int new_o = is_X_turn ? o_mask : o_mask | square;
+            int t = Symmetry.canonical_transform(new_x, new_o);
+            new_x = Symmetry.transform_mask(new_x, t);
+            new_o = Symmetry.transform_mask(new_o, t);
+            
+            Node new_node = table.get(Bitboard.encode(new_x, new_o));
+            if(new_node == null) {
+               new_node = new Node(new_x, new_o, current.get_depth() + 1);
+               table.put(new_node.get_key(), new_node);
+               node_count++;
+               generate_canonical(new_node, !is_X_turn);
+            }
+            if(!current.get_children().contains(new_node)) {
+               current.add_child(new_node, i);
+            }
          }
+      }
    
    }
    
+   // Finds the Node that holds state. In SYMMETRY mode that's the canonical node, whose state may be
+   // rotated or reflected from the one passed in. Returns null if state isn't in the tree.
+   public Node find_node(byte[] state) {
+      int x_mask = Bitboard.x_mask(state);
+      int o_mask = Bitboard.o_mask(state);
+      
+      if(mode == BuildMode.SYMMETRY) {
+         int t = Symmetry.canonical_transform(x_mask, o_mask);
+         return table.get(Bitboard.encode(Symmetry.transform_mask(x_mask, t), Symmetry.transform_mask(o_mask, t)));
+      }
+      else if(mode == BuildMode.TRANSPOSITION) {
+         return table.get(Bitboard.encode(x_mask, o_mask));
+      }
+      
+      return walk_to(root, x_mask, o_mask);
+   }
+   
+   // In a plain tree, walk down from current, each time taking a child whose pieces are all also in the
+   // target. A LAZY tree has nothing under a finished game, so if a path ends early, back up and try another.
+   private Node walk_to(Node current, int x_mask, int o_mask) {
+      if(current.get_x_mask() == x_mask && current.get_o_mask() == o_mask) {
+         return current;
+      }
+      for(int i = 0; i < current.get_children().size(); i++) {
+         Node child = current.get_children().get(i);
+         if((child.get_x_mask() & ~x_mask) == 0 && (child.get_o_mask() & ~o_mask) == 0) {
+            Node found = walk_to(child, x_mask, o_mask);
+            if(found != null) {
+               return found;
+            }
+         }
+      }
+      return null;
+   }
+   
+   // Returns the state after the best move from state, in the same orientation as state, or null if
+   // state is finished or isn't in the tree. init_values() has to have been called first.
+   public byte[] get_best_move(byte[] state) {
+      Node current;
+      if(SolverEvents.MOVE_LOOKUP.isEnabled()) {
+         SolverEvents.MoveLookup event = new SolverEvents.MoveLookup();
+         event.begin();
+         current = find_node(state);
+         event.key = Node.key_of(state);
+         event.found = current != null;
+         event.commit();
+      }
+      else {
+         current = find_node(state);
+      }
+      if(current == null || current.is_leaf()) {
+         return null;
+      }
+      
+      // Only happens in PRUNED mode, for positions the first search didn't need.
+      current.set_value();
+      
+      int square = current.get_best_square();
+      if(mode == BuildMode.SYMMETRY) {
+         square = Symmetry.to_original_square(Symmetry.canonical_transform(state), square);
+      }
+      
+      byte[] new_state = state.clone();
+      new_state[square] = (byte)(current.get_depth() % 2 == 0 ? 1 : 2);
+      return new_state;
+   }
+   
+   // Same as get_best_move(byte[]), but chooses at random between every square that keeps the best value.
+   // Works square by square in the caller's orientation, so symmetric moves are each as likely as the others.
+   public byte[] get_mixed_best_move(byte[] state) {
+      Node current = find_node(state);
+      if(current == null || current.is_leaf()) {
+         return null;
+      }
+      current.set_value();
+      
+      byte piece = (byte)(current.get_depth() % 2 == 0 ? 1 : 2);
+      ArrayList<byte[]> best_states = new ArrayList<byte[]>();
+      for(int i = 0; i < 9; i++) {
+         if(state[i] == 0) {
+            byte[] new_state = state.clone();
+            new_state[i] = piece;
+            // The search in PRUNED mode may not have looked at every move, so make sure this one is solved.
+            Node next = find_node(new_state);
+            next.set_value();
+            if(next.get_value() == current.get_value()) {
+               best_states.add(new_state);
+            }
+         }
+      }
+      return best_states.get(ThreadLocalRandom.current().nextInt(best_states.size()));
+   }
+   
+   // In LAZY mode there's nothing to do; every node is solved as soon as it's made.
+   // Only the first call does any work (or gets timed).
    public void init_values() {
-      root.set_value();
+      if(mode == BuildMode.LAZY || solve_nanos != 0) {
+         return;
+      }
+      
+      SolverEvents.Solve event = new SolverEvents.Solve();
+      event.begin();
+      long start = System.nanoTime();
+      if(mode == BuildMode.PARALLEL) {
+         ForkJoinPool.commonPool().invoke(new SolveTask(root, parallel_cutoff));
+      }
+      else if(mode == BuildMode.PRUNED) {
+         root.set_value_pruned(Node.Values.LOSS, Node.Values.WIN);
+      }
+      else {
+         root.set_value();
+      }
+      solve_nanos = System.nanoTime() - start;
+      event.mode = mode.name();
+      event.commit();
    }
       
    private void count_leaves(Node current) {
       if(current.is_leaf()) {
          leaf_count++;
-         if(current.get_value().compareTo(Node.Values.LOSS) == 0) {
+         // Checked from the board rather than get_value(), since a PRUNED tree may not have solved every leaf.
+         if(Bitboard.is_win(current.get_o_mask())) {
             loss_count++;
          }
          return;
@@ -0,0 +1,150 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// MNKGame.java
+// The rules of an m,n,k game: a board with some number of rows and columns,
+// where the first player to get k in a row (across, down, or diagonal) wins.
+// Standard Tic-Tac-Toe is 3,3,3. Positions are two bitmasks (one for X, one
+// for O) with bit i = row * cols + col, like Bitboard.java but in a long so
+// boards up to 63 squares fit. 3,3,3 takes its lines from Bitboard.LINES, so
+// it's the same game the trees solve. Used by SearchEngine.java.
+// *****************************************************************************
+
+import java.util.*;
+
+public class MNKGame {
+
+   // Regular 3x3 Tic-Tac-Toe.
+   public static final MNKGame STANDARD = new MNKGame(3, 3, 3);
+   
+   private int rows;
+   private int cols;
+   private int k;
+   
+   // Every run of k squares in a row, as a mask.
+   private long[] lines;
+   
+   // The squares sorted from closest to the center to farthest. Squares near the center are in more
+   // lines, so searching them first makes the alpha-beta cutoffs come sooner.
+   private int[] center_order;
+   
+   public MNKGame(int num_rows, int num_cols, int in_a_row) {
+      if(num_rows < 1 || num_cols < 1 || num_rows * num_cols > 63) {
+         throw new IllegalArgumentException("Board has to have between 1 and 63 squares");
+      }
+      if(in_a_row < 1 || (in_a_row > num_rows && in_a_row > num_cols)) {
+         throw new IllegalArgumentException("k has to fit on the board");
+      }
+      rows = num_rows;
+      cols = num_cols;
+      k = in_a_row;
+      
+      // Regular Tic-Tac-Toe shares Bitboard's table instead of working out its own.
+      if(rows == 3 && cols == 3 && k == 3) {
+         lines = new long[Bitboard.LINES.length];
+         for(int i = 0; i < lines.length; i++) {
+            lines[i] = Bitboard.LINES[i];
+         }
+      }
+      else {
+         lines = find_lines();
+      }
+      
+      // Distance is doubled so the center of an even-sized board works out to whole numbers.
+      Integer[] order = new Integer[rows * cols];
+      for(int i = 0; i < order.length; i++) {
+         order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return Integer.compare(center_distance(a), center_distance(b));
+         }
+      });
+      center_order = new int[order.length];
+      for(int i = 0; i < order.length; i++) {
+         center_order[i] = order[i];
+      }
+   }
+   
+   // Every run of k squares in a row on this board.
+   private long[] find_lines() {
+      // Each line is given by where it starts and which way it goes: right, down, down-right, down-left.
+      int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+      ArrayList<Long> found = new ArrayList<Long>();
+      for(int d = 0; d < directions.length; d++) {
+         for(int r = 0; r < rows; r++) {
+            for(int c = 0; c < cols; c++) {
+               int end_r = r + (k - 1) * directions[d][0];
+               int end_c = c + (k - 1) * directions[d][1];
+               if(end_r < 0 || end_r >= rows || end_c < 0 || end_c >= cols) {
+                  continue;
+               }
+               long line = 0;
+               for(int step = 0; step < k; step++) {
+                  line |= 1L << square(r + step * directions[d][0], c + step * directions[d][1]);
+               }
+               found.add(line);
+            }
+         }
+      }
+      long[] result = new long[found.size()];
+      for(int i = 0; i < result.length; i++) {
+         result[i] = found.get(i);
+      }
+      return result;
+   }
+   
+   private int center_distance(int square) {
+      int r = square / cols;
+      int c = square % cols;
+      return Math.abs(2 * r - (rows - 1)) + Math.abs(2 * c - (cols - 1));
+   }
+   
+   public int square(int row, int col) {
+      return row * cols + col;
+   }
+   
+   public int get_rows() {
+      return rows;
+   }
+   
+   public int get_cols() {
+      return cols;
+   }
+   
+   public int get_k() {
+      return k;
+   }
+   
+   public int get_size() {
+      return rows * cols;
+   }
+   
+   // A mask with every square on the board. Never all 64 bits, since boards stop at 63 squares.
+   public long get_full() {
+      return (1L << get_size()) - 1;
+   }
+   
+   public long[] get_lines() {
+      return lines;
+   }
+   
+   public int[] get_center_order() {
+      return center_order;
+   }
+   
+   // True if mask has k in a row somewhere.
+   public boolean is_win(long mask) {
+      for(int i = 0; i < lines.length; i++) {
+         if((mask & lines[i]) == lines[i]) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   public String toString() {
+      return rows + "," + cols + "," + k;
+   }
+
+}
@@ -0,0 +1,319 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// MonteCarloPlayer.java
+// Picks moves with Monte Carlo Tree Search instead of solving the game first,
+// so it can play right away and stop whenever its budget runs out. Each move
+// gets a time budget or a playout budget (a playout is one random game played
+// to the end). Moves are picked with UCT (the upper confidence bound for
+// trees), and playouts run on a SearchBoard, so they don't make any objects.
+// Work is split by root parallelization: every thread grows its own tree
+// from the current position, and at the end the visit counts of the moves at
+// the root are added up. The most visited move wins. Uses SearchBoard.java.
+// *****************************************************************************
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class MonteCarloPlayer {
+
+   public static final long DEFAULT_TIME_MILLIS = 100;
+   
+   // The usual sqrt(2) for rewards between 0 and 1.
+   private static final double EXPLORATION = Math.sqrt(2);
+   
+   // How many playouts between looks at the clock.
+   private static final int CLOCK_CHECK = 64;
+   
+   private ExecutorService pool;
+   private int threads;
+   private long time_millis = DEFAULT_TIME_MILLIS;
+   private long playout_budget = 0;
+   // Where each search's seed comes from after set_seed, or null for a new random seed every time.
+   private SplittableRandom seeds = null;
+   
+   // From the last call to choose_square.
+   private long last_playouts = 0;
+   private long last_nanos = 0;
+   private long[] last_visits = new long[9];
+   private double[] last_rewards = new double[9];
+   
+   // Add-ups over every call, for playouts/sec.
+   private long total_playouts = 0;
+   private long total_nanos = 0;
+   
+   // One node of one thread's search tree.
+   private static class TreeNode {
+   
+      // The square filled to get here (-1 at the root).
+      private int square;
+      // Empty squares that don't have a child yet.
+      private int untried;
+      private TreeNode[] children = new TreeNode[9];
+      private int child_count = 0;
+      private long visits = 0;
+      // Added up from the point of view of whoever moved into this node: 1 for a win, 0.5 for a draw.
+      private double reward = 0;
+      
+      private TreeNode(int move, int empty_mask) {
+         square = move;
+         untried = empty_mask;
+      }
+      
+      // The child with the best UCT score.
+      private TreeNode select() {
+         double log_visits = Math.log(visits);
+         TreeNode best = null;
+         double best_score = Double.NEGATIVE_INFINITY;
+         for(int i = 0; i < child_count; i++) {
+            TreeNode child = children[i];
+            double score = child.reward / child.visits + EXPLORATION * Math.sqrt(log_visits / child.visits);
+            if(score > best_score) {
+               best_score = score;
+               best = child;
+            }
+         }
+         return best;
+      }
+   }
+   
+   // What one thread found at the root.
+   private static class RootStats {
+      private long playouts = 0;
+      private long[] visits = new long[9];
+      private double[] rewards = new double[9];
+   }
+   
+   // threads is how many trees are grown at once, or 0 for one per core.
+   public MonteCarloPlayer(int threads) {
+      this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "MonteCarloPlayer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+   
+   // Search each move for this long. Turns off the playout budget.
+   public void set_time_budget(long millis) {
+      time_millis = millis;
+      playout_budget = 0;
+   }
+   
+   // Search each move for this many playouts in all, split between the threads. Turns off the time budget.
+   public void set_playout_budget(long playouts) {
+      playout_budget = playouts;
+      time_millis = 0;
+   }
+   
+   // Makes every search from now on start from seeds drawn from this one, so with a playout budget the same
+   // seed, thread count and sequence of calls always give the same moves. A time budget still depends on how
+   // many playouts fit in the time.
+   public void set_seed(long seed) {
+      seeds = new SplittableRandom(seed);
+   }
+   
+   public int get_threads() {
+      return threads;
+   }
+   
+   // The square to fill for whoever's turn it is, or -1 if the game is already over.
+   public int choose_square(int x_mask, int o_mask) {
+      SearchBoard board = new SearchBoard(x_mask, o_mask);
+      if(board.is_over()) {
+         return -1;
+      }
+      
+      long start = System.nanoTime();
+      final long deadline = time_millis > 0 ? start + time_millis * 1000000 : Long.MAX_VALUE;
+      List<Callable<RootStats>> work = new ArrayList<Callable<RootStats>>();
+      for(int t = 0; t < threads; t++) {
+         final long limit = playout_budget > 0 ? playout_budget / threads + (t < playout_budget % threads ? 1 : 0) : Long.MAX_VALUE;
+         final long seed = seeds != null ? seeds.nextLong() : ThreadLocalRandom.current().nextLong();
+         work.add(new Callable<RootStats>() {
+            public RootStats call() {
+               return search(x_mask, o_mask, deadline, limit, seed);
+            }
+         });
+      }
+      
+      Arrays.fill(last_visits, 0);
+      Arrays.fill(last_rewards, 0);
+      last_playouts = 0;
+      try {
+         for(Future<RootStats> future : pool.invokeAll(work)) {
+            RootStats stats = future.get();
+            last_playouts += stats.playouts;
+            for(int square = 0; square < 9; square++) {
+               last_visits[square] += stats.visits[square];
+               last_rewards[square] += stats.rewards[square];
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      catch(ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      }
+      last_nanos = System.nanoTime() - start;
+      total_playouts += last_playouts;
+      total_nanos += last_nanos;
+      
+      int best = -1;
+      for(int square = 0; square < 9; square++) {
+         if(last_visits[square] > 0 && (best < 0 || last_visits[square] > last_visits[best])) {
+            best = square;
+         }
+      }
+      // Only if the budget was too small for even one playout.
+      return best >= 0 ? best : Integer.numberOfTrailingZeros(board.get_empty_mask());
+   }
+   
+   // One thread's search: grows a tree from the position until the deadline or the playout limit.
+   private static RootStats search(int x_mask, int o_mask, long deadline, long limit, long seed) {
+      SearchBoard board = new SearchBoard(x_mask, o_mask);
+      SplittableRandom random = new SplittableRandom(seed);
+      int root_moves = board.get_move_count();
+      TreeNode root = new TreeNode(-1, board.get_empty_mask());
+      TreeNode[] path = new TreeNode[10];
+      RootStats stats = new RootStats();
+      
+      while(stats.playouts < limit && (stats.playouts % CLOCK_CHECK != 0 || System.nanoTime() < deadline)) {
+         // Selection: go down through fully expanded nodes.
+         TreeNode node = root;
+         path[0] = root;
+         int length = 1;
+         while(node.untried == 0 && node.child_count > 0) {
+            node = node.select();
+            board.make(node.square);
+            path[length++] = node;
+         }
+         
+         // Expansion: add one untried move.
+         if(!board.is_over() && node.untried != 0) {
+            int pick = random.nextInt(Integer.bitCount(node.untried));
+            int untried = node.untried;
+            for(int i = 0; i < pick; i++) {
+               untried &= untried - 1;
+            }
+            int square = Integer.numberOfTrailingZeros(untried);
+            node.untried &= ~(1 << square);
+            board.make(square);
+            TreeNode child = new TreeNode(square, board.is_over() ? 0 : board.get_empty_mask());
+            node.children[node.child_count++] = child;
+            node = child;
+            path[length++] = child;
+         }
+         
+         // Playout: random moves to the end of the game.
+         int random_moves = 0;
+         while(!board.is_over()) {
+            int empty = board.get_empty_mask();
+            int pick = random.nextInt(Integer.bitCount(empty));
+            for(int i = 0; i < pick; i++) {
+               empty &= empty - 1;
+            }
+            board.make(Integer.numberOfTrailingZeros(empty));
+            random_moves++;
+         }
+         int winner = board.get_winner();
+         for(int i = 0; i < random_moves; i++) {
+            board.unmake();
+         }
+         
+         // Backpropagation. path[i] was reached by the (root_moves + i)th move, which was X's if that's odd.
+         root.visits++;
+         for(int i = 1; i < length; i++) {
+            boolean mover_is_X = ((root_moves + i) & 1) == 1;
+            path[i].visits++;
+            path[i].reward += winner == 0 ? 0.5 : (winner == 1) == mover_is_X ? 1 : 0;
+         }
+         for(int i = 1; i < length; i++) {
+            board.unmake();
+         }
+         stats.playouts++;
+      }
+      
+      for(int i = 0; i < root.child_count; i++) {
+         stats.visits[root.children[i].square] = root.children[i].visits;
+         stats.rewards[root.children[i].square] = root.children[i].reward;
+      }
+      return stats;
+   }
+   
+   public long get_last_playouts() {
+      return last_playouts;
+   }
+   
+   // How many times the last search tried square first (0 if it's filled).
+   public long get_last_visits(int square) {
+      return last_visits[square];
+   }
+   
+   // The last search's estimate of how good square is for the player who fills it, from 0 (a sure loss) to 1
+   // (a sure win).
+   public double get_last_score(int square) {
+      return last_visits[square] == 0 ? 0 : last_rewards[square] / last_visits[square];
+   }
+   
+   public double get_playouts_per_second() {
+      return total_nanos == 0 ? 0 : total_playouts * 1e9 / total_nanos;
+   }
+   
+   public void shutdown() {
+      pool.shutdown();
+   }
+   
+   // Usage: java MonteCarloPlayer [playouts per move [threads]]
+   // Checks the move picked in every unfinished position with up to 4 pieces against the exact solver
+   // (SearchBoard's alpha-beta), and prints how often it was a best move and how many playouts/sec it ran.
+   public static void main(String[] args) {
+      long playouts = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+      MonteCarloPlayer player = new MonteCarloPlayer(threads);
+      player.set_playout_budget(playouts);
+      
+      int positions = 0;
+      int best_moves = 0;
+      int[] wrong_by_pieces = new int[5];
+      SearchBoard exact = new SearchBoard();
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            int pieces = Integer.bitCount(x_mask | o_mask);
+            if((x_mask & o_mask) != 0 || pieces > 4 || !RetrogradeSolver.is_legal(x_mask, o_mask)) {
+               continue;
+            }
+            exact.set_position(x_mask, o_mask);
+            if(exact.is_over()) {
+               continue;
+            }
+            int best = exact.alpha_beta();
+            
+            int square = player.choose_square(x_mask, o_mask);
+            exact.make(square);
+            boolean is_best = -exact.alpha_beta() == best;
+            exact.unmake();
+            
+            positions++;
+            if(is_best) {
+               best_moves++;
+            }
+            else {
+               wrong_by_pieces[pieces]++;
+            }
+         }
+      }
+      
+      System.out.printf("%d positions, picked a best move in %d (%.2f%%) with %d playouts a move on %d threads%n",
+         positions, best_moves, 100.0 * best_moves / positions, playouts, player.get_threads());
+      for(int pieces = 0; pieces < wrong_by_pieces.length; pieces++) {
+         System.out.println("   not a best move with " + pieces + " pieces: " + wrong_by_pieces[pieces]);
+      }
+      System.out.printf("playouts/sec: %.0f%n", player.get_playouts_per_second());
+      player.shutdown();
+   }
+
+}
@@ -7,27 +7,42 @@
 // ******************************************************
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class Node {
+public class Node implements SolvedPosition {
 
    // This is the state at this node. The pattern of subscripts is:
    // 0 1 2
    // 3 4 5
    // 6 7 8
-   // A 1 represents an X, and a 2 represents an O.
-   private byte[] state = new byte[9];
+   // It is stored packed as two 9-bit masks (see Bitboard.java), one for X and one for O.
+   // get_state() still hands out the byte[9] form, where a 1 represents an X, and a 2 represents an O.
+   private int x_mask;
+   private int o_mask;
 
-   private Node parent;
+   // Usually a node has exactly one parent, but when the tree is built as a DAG (see GameTree.BuildMode),
+   // a position reached by several move orders is shared, so it has one parent per predecessor.
+   private ArrayList<Node> parents = new ArrayList<Node>();
    // The size of children can be from 0 (if it is a final state) to 9.
    private ArrayList<Node> children = new ArrayList<Node>();
    
+   // child_squares.get(i) is the square that was filled to get from this node to children.get(i).
+   // Normally that can be read off the two states, but in a symmetry-reduced tree the child is stored
+   // in its canonical form, which may be rotated or reflected from this node's point of view.
+   private ArrayList<Integer> child_squares = new ArrayList<Integer>();
+   
    // Determined in the set_value method. If there are multiple "best" paths to take,
    // this will always be the first of them.
    private Node best_move;
    
-   // Also determined in the set_value method. If there are multiple "best" paths to take,
-   // one will be chosen at random, at a pseudo-uniform distribution. This is a mixed strategy.
-   private Node mixed_best_move;
+   // Also determined in the set_value method. Bit i is set if children.get(i) is one of the "best" paths.
+   // get_mixed_best_move() picks one of these at random every time it's called, at a pseudo-uniform
+   // distribution. This is a mixed strategy.
+   private int best_children_mask;
+   
+   // Set by set_value_pruned when some children were cut off before they were solved exactly, so
+   // best_children_mask may be missing some best moves. The first call that needs the mask solves the rest of the children and fixes it.
+   private boolean partial_mask;
    
    public enum Values {
       LOSS,
@@ -40,12 +55,22 @@ public class Node {
    private boolean is_leaf;
    private int depth;
    
+   // Only set in a lazily built tree (see NodeCache.java). Then children are only made the first time they're
+   // asked for, and the cache can throw them away again later to stay under its size limit.
+   private NodeCache cache;
+   private boolean expanded;
+   
    // Some of these methods may not be useful. Adding them anyway just because.
    
    // The nodes in this tree are designed to be two-way to make operations easier.
    
    public Node(byte[] new_state, int node_depth) {
-      state = new_state;
+      this(Bitboard.x_mask(new_state), Bitboard.o_mask(new_state), node_depth);
+   }
+   
+   public Node(int new_x_mask, int new_o_mask, int node_depth) {
+      x_mask = new_x_mask;
+      o_mask = new_o_mask;
       depth = node_depth;
       
       // Checking if this is a leaf node. It's not a leaf if any squares are blank and
@@ -54,34 +79,102 @@ public class Node {
       // If it hasn't yet been won or lost...
       if(is_win_loss() == null) {
          // If it has at least one blank square...
-         for(int i = 0; i < 9; i++) {
-            if(state[i] == 0) {
-               is_leaf = false;
-               break;
-            }
+         if((x_mask | o_mask) != Bitboard.FULL) {
+            is_leaf = false;
          }
       }
    }
    
+   // Makes new_parent the only parent of this node, detaching it from any others.
    public void set_parent(Node new_parent) {
-      if(parent != null) {
-         parent.remove_child(this);
+      while(!parents.isEmpty()) {
+         parents.get(0).remove_child(this);
       }
-      parent = new_parent;
+      add_parent(new_parent);
+   }
+   
+   // Adds another parent without detaching from the existing ones. Used when a position is shared.
+   public void add_parent(Node new_parent) {
+      if(new_parent != null && !parents.contains(new_parent)) {
+         parents.add(new_parent);
+      }
+   }
+   
+   public ArrayList<Node> get_parents() {
+      return parents;
    }
    
    public ArrayList<Node> get_children() {
+      expand_if_lazy();
       return children;
    }
    
+   public int get_child_count() {
+      expand_if_lazy();
+      return children.size();
+   }
+   
+   public Node get_child(int i) {
+      expand_if_lazy();
+      return children.get(i);
+   }
+   
+   // Not thread safe in a lazy tree (see NodeCache.java): the expansion may evict nodes another thread is using.
+   private void expand_if_lazy() {
+      if(cache != null && !is_leaf) {
+         cache.expand(this);
+      }
+   }
+   
+   public void set_cache(NodeCache new_cache) {
+      cache = new_cache;
+   }
+   
+   public NodeCache get_cache() {
+      return cache;
+   }
+   
+   public boolean is_expanded() {
+      return expanded;
+   }
+   
+   public void set_expanded(boolean is_expanded) {
+      expanded = is_expanded;
+   }
+   
+   // Drops every child (and what was worked out from them), so they can be garbage collected. The value stays.
+   // Used by NodeCache when it needs room; the children get made again next time they're asked for.
+   // Returns the children that were dropped. Nothing else may be using this node while it runs.
+   public ArrayList<Node> collapse() {
+      ArrayList<Node> dropped = children;
+      for(int i = 0; i < children.size(); i++) {
+         children.get(i).get_parents().remove(this);
+      }
+      children = new ArrayList<Node>();
+      child_squares.clear();
+      best_move = null;
+      best_children_mask = 0;
+      expanded = false;
+      return dropped;
+   }
+   
    public void add_child(Node child) {
+      int changed = (x_mask ^ child.get_x_mask()) | (o_mask ^ child.get_o_mask());
+      add_child(child, changed == 0 ? -1 : Integer.numberOfTrailingZeros(changed));
+   }
+   
+   public void add_child(Node child, int square) {
       children.add(child);
-      child.set_parent(this);
+      child_squares.add(square);
+      child.add_parent(this);
    }
    
+   // Also removes this node from the child's parents, so the links stay two-way.
    public void remove_child(Node child) {
       if(children.contains(child)) {
+         child_squares.remove(children.indexOf(child));
          children.remove(child);
+         child.get_parents().remove(this);
       }
       else {
          System.out.println("ERR: This node does not have that child. Nothing was done.");
@@ -92,9 +185,39 @@ public class Node {
       return value;
    }
    
-   // Note: set_state() is covered with the constructor.
+   // Note: set_state() is covered with the constructor. This builds a new array every call,
+   // so use get_x_mask()/get_o_mask() or get_square() where speed matters.
    public byte[] get_state() {
-      return state;
+      return Bitboard.to_state(x_mask, o_mask);
+   }
+   
+   public int get_x_mask() {
+      return x_mask;
+   }
+   
+   public int get_o_mask() {
+      return o_mask;
+   }
+   
+   // 0 for blank, 1 for X, 2 for O.
+   public int get_square(int i) {
+      if((x_mask & (1 << i)) != 0) {
+         return 1;
+      }
+      else if((o_mask & (1 << i)) != 0) {
+         return 2;
+      }
+      return 0;
+   }
+   
+   // The state read as a base-3 number, with square 0 as the lowest digit. Every state has
+   // a unique key from 0 to 3^9 - 1, so this is what GameTree uses to look up shared positions.
+   public int get_key() {
+      return Bitboard.encode(x_mask, o_mask);
+   }
+   
+   public static int key_of(byte[] some_state) {
+      return Bitboard.encode(Bitboard.x_mask(some_state), Bitboard.o_mask(some_state));
    }
    
    public int get_depth() {
@@ -102,16 +225,57 @@ public class Node {
    }
    
    public Node get_best_move() {
+      expand_if_lazy();
       return best_move;
    }
    
+   // The square that was filled to get to best_move, from this node's point of view.
+   public int get_best_square() {
+      expand_if_lazy();
+      return child_squares.get(children.indexOf(best_move));
+   }
+   
+   // Draws a new random choice on every call, so one solved tree can play any number of mixed games, even
+   // from several threads at once (each thread has its own ThreadLocalRandom). In a PRUNED tree the first
+   // call on a node may still have to solve some of its children (see complete_best_children), so share one
+   // of those between threads only once every node's mask is complete.
    public Node get_mixed_best_move() {
-      return mixed_best_move;
+      expand_if_lazy();
+      complete_best_children();
+      if(best_children_mask == 0) {
+         return null;
+      }
+      int pick = ThreadLocalRandom.current().nextInt(Integer.bitCount(best_children_mask));
+      int mask = best_children_mask;
+      for(int i = 0; i < pick; i++) {
+         mask &= mask - 1;
+      }
+      return children.get(Integer.numberOfTrailingZeros(mask));
+   }
+   
+   // Bit i is set if children.get(i) is one of the best moves.
+   public int get_best_children_mask() {
+      expand_if_lazy();
+      complete_best_children();
+      return best_children_mask;
+   }
+   
+   // Alpha-beta only proves that best_move is as good as it gets; siblings after the cutoff were never solved,
+   // so on their own the mixed moves would always lean toward the ones tried first. Solving them now gives
+   // the same mask set_value would have.
+   private void complete_best_children() {
+      if(partial_mask) {
+         for(int i = 0; i < children.size(); i++) {
+            children.get(i).set_value();
+         }
+         set_value_from_children();
+         partial_mask = false;
+      }
    }
    
    // Two nodes are equal iff their states are identical.
    public boolean equals(Node other) {
-      if(Arrays.equals(state, other.get_state())) {
+      if(x_mask == other.get_x_mask() && o_mask == other.get_o_mask()) {
          return true;
       }
       else {
@@ -131,28 +295,10 @@ public class Node {
    public void set_value() {
       if(value == null) {
          if(is_leaf) {
-            if(
-               (state[0] == 1 && state[3] == 1 && state[6] == 1) ||
-               (state[1] == 1 && state[4] == 1 && state[7] == 1) ||
-               (state[2] == 1 && state[5] == 1 && state[8] == 1) ||
-               (state[0] == 1 && state[1] == 1 && state[2] == 1) ||
-               (state[3] == 1 && state[4] == 1 && state[5] == 1) ||
-               (state[6] == 1 && state[7] == 1 && state[8] == 1) ||
-               (state[0] == 1 && state[4] == 1 && state[8] == 1) ||
-               (state[2] == 1 && state[4] == 1 && state[6] == 1)) {
-            
+            if(Bitboard.is_win(x_mask)) {
                value = Values.WIN;  
             }
-            else if(
-               (state[0] == 2 && state[3] == 2 && state[6] == 2) ||
-               (state[1] == 2 && state[4] == 2 && state[7] == 2) ||
-               (state[2] == 2 && state[5] == 2 && state[8] == 2) ||
-               (state[0] == 2 && state[1] == 2 && state[2] == 2) ||
-               (state[3] == 2 && state[4] == 2 && state[5] == 2) ||
-               (state[6] == 2 && state[7] == 2 && state[8] == 2) ||
-               (state[0] == 2 && state[4] == 2 && state[8] == 2) ||
-               (state[2] == 2 && state[4] == 2 && state[6] == 2)) {
-               
+            else if(Bitboard.is_win(o_mask)) {
                value = Values.LOSS;
             }
             else {
@@ -162,99 +308,144 @@ public class Node {
       
          // If this node is not a leaf...
          else {
+            for(int i = 0; i < children.size(); i++) {
+               children.get(i).set_value();
+            }
+            set_value_from_children();
+         }
          
-            // Initialize each to the first child.
-            best_move = children.get(0);
-            mixed_best_move = children.get(0);
-            
-            // A subset of children; all children that give the best path.
-            // mixed_best_move will be randomly chosen from this.
-            ArrayList<Node> best_children = new ArrayList<Node>();
+      } // end if(value == null)
+
+   }
+   
+   // Like set_value, but with alpha-beta pruning, so most of the tree never gets looked at. Children are tried in
+   // the order they were added (GameTree puts the center first, then corners, then edges in PRUNED mode), and
+   // the search stops as soon as it can't matter: right away once X finds a WIN or O finds a LOSS, and in
+   // general once the value is outside (alpha, beta). Call it on the root with (LOSS, WIN).
+   // A node only keeps its value (and best moves) when the search proved it exactly; otherwise the value stays
+   // null and set_value() can finish the job later if that node is ever reached. The return value is the
+   // exact value or, if the search was cut short, a bound on it (at least this much for X when it's at or
+   // above beta, at most this much when it's at or below alpha).
+   public Values set_value_pruned(Values alpha, Values beta) {
+      if(value != null) {
+         return value;
+      }
+      if(is_leaf) {
+         set_value();
+         return value;
+      }
+      
+      boolean is_X_turn = depth % 2 == 0;
+      Values best = is_X_turn ? Values.LOSS : Values.WIN;
+      Node best_child = children.get(0);
+      Values low = alpha;
+      Values high = beta;
+      for(int i = 0; i < children.size(); i++) {
+         Values child_value = children.get(i).set_value_pruned(low, high);
+         if(is_X_turn ? child_value.compareTo(best) > 0 : child_value.compareTo(best) < 0) {
+            best = child_value;
+            best_child = children.get(i);
+         }
+         if(is_X_turn && best.compareTo(low) > 0) {
+            low = best;
+         }
+         else if(!is_X_turn && best.compareTo(high) < 0) {
+            high = best;
+         }
+         if(low.compareTo(high) >= 0) {
+            break;
+         }
+      }
+      
+      // A bound is still exact when it's as far as values go (nothing is more than WIN or less than LOSS).
+      boolean exact = (best.compareTo(alpha) > 0 && best.compareTo(beta) < 0) || best == Values.WIN || best == Values.LOSS;
+      if(exact) {
+         value = best;
+         best_move = best_child;
+         best_children_mask = 0;
+         partial_mask = false;
+         for(int i = 0; i < children.size(); i++) {
+            if(children.get(i).get_value() == best) {
+               best_children_mask |= 1 << i;
+            }
+            // Never reached, or only bounded after low or high moved: it could be just as good.
+            else if(children.get(i).get_value() == null) {
+               partial_mask = true;
+            }
+         }
+      }
+      return best;
+   }
+   
+   // Sets the value directly, for when it was worked out some other way (NodeCache gets it from SearchEngine).
+   public void set_value(Values new_value) {
+      value = new_value;
+   }
+   
+   // The second half of set_value: sets this node's value, best_move and best_children_mask from its children,
+   // which all have to have values already. Split out so the children can be solved some other way first
+   // (GameTree solves them in parallel in PARALLEL mode).
+   public void set_value_from_children() {
+      // Initialize it to the first child.
+      best_move = children.get(0);
+      
+      // A subset of children; all children that give the best path.
+      // get_mixed_best_move() will randomly choose from this.
+      best_children_mask = 0;
+   
+      // If the depth is even, it is X's turn, so it should look for the
+      // best possible value.
+      if(depth % 2 == 0) {
+         Values max_child_value = Values.LOSS;
+         // Go through each of this node's children. If that
+         // child has the best value so far, that value will be remembered and assigned after
+         // all children have been examined. The best move will similarly be determined.
+         for(int i = 0; i < children.size(); i++) {
+            if(children.get(i).get_value().compareTo(max_child_value) > 0) {
+               max_child_value = children.get(i).get_value();
+               best_move = children.get(i);
+            }
+         }
          
-            // If the depth is even, it is X's turn, so it should look for the
-            // best possible value.
-            if(depth % 2 == 0) {
-               Values max_child_value = Values.LOSS;
-               // Go through each of this node's children and set each's value. If that
-               // child has the best value so far, that value will be remembered and assigned after
-               // all children have been examined. The best move will similarly be determined.
-               for(int i = 0; i < children.size(); i++) {
-                  children.get(i).set_value();
-                  if(children.get(i).get_value().compareTo(max_child_value) > 0) {
-                     max_child_value = children.get(i).get_value();
-                     best_move = children.get(i);
-                  }
-               }
-               
-               // Go through all children again, and put all that had the best result in best_children. Then
-               // choose one at random to be mixed_best_move.
-               for(int i = 0; i < children.size(); i++) {
-                  if(children.get(i).get_value().compareTo(max_child_value) == 0) {
-                     best_children.add(children.get(i));
-                  }
-               }
-               
-               Random randy = new Random();
-               mixed_best_move = best_children.get(randy.nextInt(best_children.size()));
-            
-               value = max_child_value;
+         // Go through all children again, and put all that had the best result in best_children_mask.
+         for(int i = 0; i < children.size(); i++) {
+            if(children.get(i).get_value().compareTo(max_child_value) == 0) {
+               best_children_mask |= 1 << i;
             }
-            
-            // If the depth is odd, it is O's turn. This will work the same as if it were
-            // X's turn, except it will look for the worst possible value (from X's perspective).
-            else {
-               Values min_child_value = Values.WIN;
-               for(int i = 0; i < children.size(); i++) {
-                  children.get(i).set_value();
-                  if(children.get(i).get_value().compareTo(min_child_value) < 0) {
-                     min_child_value = children.get(i).get_value();
-                     best_move = children.get(i);
-                  }
-               }
-               
-               for(int i = 0; i < children.size(); i++) {
-                  if(children.get(i).get_value().compareTo(min_child_value) == 0) {
-                     best_children.add(children.get(i));
-                  }
-               }
-               
-               Random rand = new Random();
-               mixed_best_move = best_children.get(rand.nextInt(best_children.size()));
-               
-               value = min_child_value;
+         }
+      
+         value = max_child_value;
+      }
+      
+      // If the depth is odd, it is O's turn. This will work the same as if it were
+      // X's turn, except it will look for the worst possible value (from X's perspective).
+      else {
+         Values min_child_value = Values.WIN;
+         for(int i = 0; i < children.size(); i++) {
+            if(children.get(i).get_value().compareTo(min_child_value) < 0) {
+               min_child_value = children.get(i).get_value();
+               best_move = children.get(i);
             }
          }
          
-      } // end if(value == null)
-
+         for(int i = 0; i < children.size(); i++) {
+            if(children.get(i).get_value().compareTo(min_child_value) == 0) {
+               best_children_mask |= 1 << i;
+            }
+         }
+         
+         value = min_child_value;
+      }
    }
    
    // Tests if this node represents a win or loss. Sets value to WIN or LOSS (but not DRAW), and
    // returns that value. If neither has occurred yet, return null.
    public Values is_win_loss() {
-      if(
-         (state[0] == 1 && state[3] == 1 && state[6] == 1) ||
-         (state[1] == 1 && state[4] == 1 && state[7] == 1) ||
-         (state[2] == 1 && state[5] == 1 && state[8] == 1) ||
-         (state[0] == 1 && state[1] == 1 && state[2] == 1) ||
-         (state[3] == 1 && state[4] == 1 && state[5] == 1) ||
-         (state[6] == 1 && state[7] == 1 && state[8] == 1) ||
-         (state[0] == 1 && state[4] == 1 && state[8] == 1) ||
-         (state[2] == 1 && state[4] == 1 && state[6] == 1)) {
-         
+      if(Bitboard.is_win(x_mask)) {
          value = Values.WIN;
          return Values.WIN;  
       }
-      else if(
-         (state[0] == 2 && state[3] == 2 && state[6] == 2) ||
-         (state[1] == 2 && state[4] == 2 && state[7] == 2) ||
-         (state[2] == 2 && state[5] == 2 && state[8] == 2) ||
-         (state[0] == 2 && state[1] == 2 && state[2] == 2) ||
-         (state[3] == 2 && state[4] == 2 && state[5] == 2) ||
-         (state[6] == 2 && state[7] == 2 && state[8] == 2) ||
-         (state[0] == 2 && state[4] == 2 && state[8] == 2) ||
-         (state[2] == 2 && state[4] == 2 && state[6] == 2)) {
-         
+      else if(Bitboard.is_win(o_mask)) {
          value = Values.LOSS;
          return Values.LOSS;
       }
@@ -286,10 +477,10 @@ public class Node {
          throw new ArrayIndexOutOfBoundsException("Pull it together, Josh");
       }
       else {
-         if(state[i] == 1) {
+         if(get_square(i) == 1) {
             to_return = 'X';
          }
-         else if(state[i] == 2) {
+         else if(get_square(i) == 2) {
             to_return = 'O';
          }
       }
@@ -297,15 +488,28 @@ public class Node {
    }
    
    public Node get_this_child(byte[] new_state) {
-      Node to_find = new Node(new_state, depth + 1);
-      Node match = null;
+      int find_x = Bitboard.x_mask(new_state);
+      int find_o = Bitboard.o_mask(new_state);
+      if(!SolverEvents.MOVE_LOOKUP.isEnabled()) {
+         return find_child(find_x, find_o);
+      }
+      SolverEvents.MoveLookup event = new SolverEvents.MoveLookup();
+      event.begin();
+      Node match = find_child(find_x, find_o);
+      event.key = Bitboard.encode(find_x, find_o);
+      event.found = match != null;
+      event.commit();
+      return match;
+   }
+   
+   private Node find_child(int find_x, int find_o) {
+      expand_if_lazy();
       for(int i = 0; i < children.size(); i++) {
-         if(Arrays.equals(to_find.get_state(), children.get(i).get_state())) {
-            match = children.get(i);
-            break;
+         if(find_x == children.get(i).get_x_mask() && find_o == children.get(i).get_o_mask()) {
+            return children.get(i);
          }
       }
-      return match;
+      return null;
    }
    
 }
\ No newline at end of file
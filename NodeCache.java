@@ -0,0 +1,151 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// NodeCache.java
+// Makes a GameTree lazy. Instead of building every node up front, a node's
+// children are only made (and solved) the first time someone asks for them.
+// The expanded nodes are kept in least-recently-used order, and when there
+// are more than the limit, the ones that haven't been used in longest get
+// their children thrown away. They're just made again if they're needed.
+// Values come from SearchEngine.java, so nothing below the visited nodes
+// ever has to exist. A lazy tree is for one thread at a time: the cache's own
+// bookkeeping is synchronized, but an eviction swaps out a node's children
+// with no regard for another thread that's walking them. Used by Node.java
+// and GameTree.java.
+// *****************************************************************************
+
+import java.util.*;
+
+public class NodeCache {
+
+   private int max_nodes;
+   
+   // Every expanded node, least recently used first. Keys are compared by identity (Node doesn't override
+   // hashCode), which is what's wanted here.
+   private LinkedHashMap<Node, Boolean> expanded = new LinkedHashMap<Node, Boolean>(16, 0.75f, true);
+   
+   // How many child nodes the expanded nodes are holding on to right now.
+   private int cached_nodes = 0;
+   private int peak_nodes = 0;
+   private long expansions = 0;
+   private long evictions = 0;
+   // Depth of the deepest node ever made, for GameTree.get_stats().
+   private int peak_depth = 0;
+   
+   private SearchEngine engine = new SearchEngine(MNKGame.STANDARD);
+   
+   // max_cached_nodes is the most child nodes to keep at once. A Node with its lists is roughly 200 bytes,
+   // so 50,000 is about 10 MB. It has to be at least 9 for anything to be kept. The nodes on the way down to
+   // the one being expanded are never evicted, so a tiny limit can be overshot by their children (45 at most).
+   public NodeCache(int max_cached_nodes) {
+      max_nodes = max_cached_nodes;
+   }
+   
+   // Gives node a value (if it doesn't have one yet) without expanding anything.
+   public synchronized void solve(Node node) {
+      if(node.get_value() == null) {
+         if(node.is_leaf()) {
+            node.set_value();
+         }
+         else {
+            node.set_value(engine.search(node.get_x_mask(), node.get_o_mask()).get_value());
+         }
+      }
+   }
+   
+   // Makes sure node has its children, solving each one and then picking node's best moves from them.
+   // Called from Node whenever something asks for the children or best moves.
+   public synchronized void expand(Node node) {
+      if(node.is_expanded()) {
+         expanded.get(node);
+         return;
+      }
+      
+      int x_mask = node.get_x_mask();
+      int o_mask = node.get_o_mask();
+      boolean is_X_turn = node.get_depth() % 2 == 0;
+      
+      // Mark it first: Node.get_children() would otherwise come right back here.
+      node.set_expanded(true);
+      for(int i = 0; i < 9; i++) {
+         int square = 1 << i;
+         if(((x_mask | o_mask) & square) == 0) {
+            Node child = is_X_turn ? new Node(x_mask | square, o_mask, node.get_depth() + 1)
+               : new Node(x_mask, o_mask | square, node.get_depth() + 1);
+            child.set_cache(this);
+            solve(child);
+            node.add_child(child, i);
+         }
+      }
+      node.set_value_from_children();
+      
+      cached_nodes += node.get_children().size();
+      expansions++;
+      peak_nodes = Math.max(peak_nodes, cached_nodes);
+      peak_depth = Math.max(peak_depth, node.get_depth() + 1);
+      
+      // Evict from the least recently used end. The node that was just expanded isn't in the map yet, so it
+      // can't be picked, and evict() steps around it in case it's under one that is. Its ancestors are skipped
+      // too: collapsing one would cut it off from the root, and the caller is usually about to walk down it.
+      ArrayList<Node> path = new ArrayList<Node>();
+      for(Node up = node; !up.get_parents().isEmpty(); up = up.get_parents().get(0)) {
+         path.add(up.get_parents().get(0));
+      }
+      while(cached_nodes > max_nodes) {
+         // At most path.size() nodes get skipped, so this finds one right away.
+         Node victim = null;
+         for(Node candidate : expanded.keySet()) {
+            if(!path.contains(candidate)) {
+               victim = candidate;
+               break;
+            }
+         }
+         if(victim == null) {
+            break;
+         }
+         expanded.remove(victim);
+         evict(victim, node);
+      }
+      expanded.put(node, Boolean.TRUE);
+   }
+   
+   // Collapses victim and everything expanded under it, since nothing can reach those once victim lets go.
+   // (Lazy trees aren't shared, so each node has just the one parent.) keep is left alone.
+   private void evict(Node victim, Node keep) {
+      ArrayList<Node> children = victim.collapse();
+      cached_nodes -= children.size();
+      evictions++;
+      for(int i = 0; i < children.size(); i++) {
+         Node child = children.get(i);
+         if(child.is_expanded() && child != keep) {
+            expanded.remove(child);
+            evict(child, keep);
+         }
+      }
+   }
+   
+   public synchronized int get_cached_nodes() {
+      return cached_nodes;
+   }
+   
+   public synchronized int get_peak_nodes() {
+      return peak_nodes;
+   }
+   
+   public synchronized long get_expansions() {
+      return expansions;
+   }
+   
+   public synchronized long get_evictions() {
+      return evictions;
+   }
+   
+   public synchronized int get_peak_depth() {
+      return peak_depth;
+   }
+   
+   public int get_max_nodes() {
+      return max_nodes;
+   }
+
+}
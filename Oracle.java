@@ -0,0 +1,164 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Oracle.java
+// A flat lookup table of perfect play for 3x3 Tic-Tac-Toe. Every board has a
+// base-3 key from 0 to 3^9 - 1 (see Bitboard.encode), and this keeps the value
+// and best square for each key in plain byte arrays, so answering "what is the
+// best move here?" is one array index instead of a walk through the GameTree.
+// Filled once from a solved GameTree or a TreeSnapshot. Uses Node.java,
+// GameTree.java, TreeSnapshot.java.
+// *****************************************************************************
+
+import java.nio.file.Paths;
+import java.util.*;
+
+public class Oracle {
+
+   // Number of possible keys, 3^9.
+   public static final int SIZE = 19683;
+   
+   // Cached so get_value doesn't make a new array every call like Values.values() does.
+   private static final Node.Values[] VALUES = Node.Values.values();
+   
+   // values[key] is the ordinal of the Node.Values for that board, or -1 if the board can't come up in a game.
+   private byte[] values = new byte[SIZE];
+   
+   // best_squares[key] is the square to fill next, or -1 if the game is over or the board can't come up.
+   private byte[] best_squares = new byte[SIZE];
+   
+   // best_masks[key] has bit i set if filling square i keeps the value, so it's the set of every best move.
+   private short[] best_masks = new short[SIZE];
+   
+   // The tree has to be solved already (GameTree.init_values()). Any BuildMode works.
+   public Oracle(GameTree tree) {
+      Arrays.fill(values, (byte)-1);
+      Arrays.fill(best_squares, (byte)-1);
+      fill(tree.get_root(), tree.get_mode() == GameTree.BuildMode.SYMMETRY);
+      fill_best_masks();
+   }
+   
+   // Every position in the snapshot is already solved, so this is one pass over its records.
+   public Oracle(TreeSnapshot snapshot) {
+      Arrays.fill(values, (byte)-1);
+      Arrays.fill(best_squares, (byte)-1);
+      for(int i = 0; i < snapshot.get_size(); i++) {
+         int state = snapshot.get_state(i);
+         int key = Bitboard.encode(state & Bitboard.FULL, state >>> 9);
+         if(values[key] != -1) {
+            continue;
+         }
+         TreeSnapshot.View position = snapshot.new View(i);
+         values[key] = (byte)position.get_value().ordinal();
+         if(!position.is_leaf()) {
+            best_squares[key] = (byte)position.get_best_square();
+         }
+      }
+      fill_best_masks();
+   }
+   
+   // From the snapshot file if there's a good one, otherwise from a newly solved TRANSPOSITION tree.
+   public static Oracle load_or_build() {
+      TreeSnapshot snapshot = TreeSnapshot.load_if_present(Paths.get(TreeSnapshot.DEFAULT_FILE));
+      if(snapshot != null) {
+         return new Oracle(snapshot);
+      }
+      GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+      tree.init_values();
+      return new Oracle(tree);
+   }
+   
+   // Walks the tree once, skipping anything it has already seen (in a DAG, most things), and stops at
+   // leaves since nothing under a finished game is a real position. In a symmetry-reduced tree each node
+   // stands for up to 8 boards, so all 8 orientations get filled in, with the best square turned to match.
+   private void fill(Node current, boolean all_orientations) {
+      if(values[current.get_key()] != -1) {
+         return;
+      }
+      
+      // A PRUNED tree can have nodes the search never needed, so solve those first.
+      current.set_value();
+      
+      int orientations = all_orientations ? 8 : 1;
+      for(int t = 0; t < orientations; t++) {
+         int key = Bitboard.encode(Symmetry.transform_mask(current.get_x_mask(), t),
+            Symmetry.transform_mask(current.get_o_mask(), t));
+         values[key] = (byte)current.get_value().ordinal();
+         if(!current.is_leaf()) {
+            best_squares[key] = (byte)Symmetry.to_canonical_square(t, current.get_best_square());
+         }
+      }
+      
+      if(!current.is_leaf()) {
+         for(int i = 0; i < current.get_children().size(); i++) {
+            fill(current.get_children().get(i), all_orientations);
+         }
+      }
+   }
+   
+   // Done straight from the table once every value is in, so it's the same in every BuildMode (a symmetry-reduced
+   // tree only keeps one of each group of symmetric moves, so its nodes can't give the full set).
+   private void fill_best_masks() {
+      for(int key = 0; key < SIZE; key++) {
+         if(best_squares[key] == -1) {
+            continue;
+         }
+         
+         // Count pieces to see whose turn it is, and find the 3^i for each square on the way.
+         int x_count = 0;
+         int o_count = 0;
+         int[] powers = new int[9];
+         int rest = key;
+         int power = 1;
+         for(int i = 0; i < 9; i++) {
+            powers[i] = power;
+            if(rest % 3 == 1) {
+               x_count++;
+            }
+            else if(rest % 3 == 2) {
+               o_count++;
+            }
+            rest /= 3;
+            power *= 3;
+         }
+         int piece = x_count == o_count ? 1 : 2;
+         
+         rest = key;
+         for(int i = 0; i < 9; i++) {
+            if(rest % 3 == 0 && values[key + piece * powers[i]] == values[key]) {
+               best_masks[key] |= 1 << i;
+            }
+            rest /= 3;
+         }
+      }
+   }
+   
+   // The value (from X's perspective) of the board with this key, or null if it can't come up in a game.
+   public Node.Values get_value(int key) {
+      int ordinal = values[key];
+      return ordinal < 0 ? null : VALUES[ordinal];
+   }
+   
+   public Node.Values get_value(int x_mask, int o_mask) {
+      return get_value(Bitboard.encode(x_mask, o_mask));
+   }
+   
+   // The best square to fill for whoever's turn it is, or -1 if there isn't one.
+   public int get_best_square(int key) {
+      return best_squares[key];
+   }
+   
+   public int get_best_square(int x_mask, int o_mask) {
+      return get_best_square(Bitboard.encode(x_mask, o_mask));
+   }
+   
+   // Every square that keeps the best value, as a mask (bit i for square i). 0 if the game is over.
+   public int get_best_mask(int key) {
+      return best_masks[key];
+   }
+   
+   public static int encode(byte[] state) {
+      return Node.key_of(state);
+   }
+
+}
@@ -0,0 +1,276 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// OutcomeAnalyzer.java
+// Works out exactly how likely each result (X wins, O wins, draw) is from a
+// position when the players don't always play perfectly. Each side follows a
+// Model: random moves, optimal moves (a random one of the best), epsilon-
+// optimal (random with probability epsilon, otherwise optimal), or exploit
+// (only ever plays a best move, but picks whichever best move gives it the
+// best chance of winning against the other side's model). Every position is
+// worked out once, no matter how many ways there are to get to it, so the
+// whole game takes a few milliseconds. The minimax value comes out of the same
+// pass. Uses Bitboard.java.
+// *****************************************************************************
+
+public class OutcomeAnalyzer {
+
+   // How a player picks its move, as a probability for every legal move.
+   public static class Model {
+   
+      // Chance of a random move instead of a best one.
+      private double epsilon;
+      // Picks the best move with the most wins instead of a random best move.
+      private boolean exploit;
+      private String name;
+      
+      private Model(double random_chance, boolean exploit_opponent, String model_name) {
+         epsilon = random_chance;
+         exploit = exploit_opponent;
+         name = model_name;
+      }
+      
+      public String toString() {
+         return name;
+      }
+   }
+   
+   public static final Model RANDOM = new Model(1, false, "random");
+   public static final Model OPTIMAL = new Model(0, false, "optimal");
+   public static final Model EXPLOIT = new Model(0, true, "exploit");
+   
+   public static Model epsilon_optimal(double epsilon) {
+      if(epsilon < 0 || epsilon > 1) {
+         throw new IllegalArgumentException("epsilon must be between 0 and 1: " + epsilon);
+      }
+      return new Model(epsilon, false, "epsilon:" + epsilon);
+   }
+   
+   // random, optimal, exploit, or epsilon:<probability> (like epsilon:0.1), the same names Simulator uses.
+   public static Model parse_model(String name) {
+      if(name.equals("random")) {
+         return RANDOM;
+      }
+      else if(name.equals("optimal") || name.equals("mixed")) {
+         return OPTIMAL;
+      }
+      else if(name.equals("exploit")) {
+         return EXPLOIT;
+      }
+      else if(name.startsWith("epsilon:")) {
+         return epsilon_optimal(Double.parseDouble(name.substring("epsilon:".length())));
+      }
+      throw new IllegalArgumentException("Unknown model: " + name);
+   }
+   
+   // Cached so get_value doesn't make a new array every call like Values.values() does.
+   private static final Node.Values[] VALUES = Node.Values.values();
+   
+   private Model x_model;
+   private Model o_model;
+   
+   // All indexed by Bitboard.encode. Only positions that can come up from the empty board get filled in.
+   private boolean[] solved = new boolean[Oracle.SIZE];
+   private byte[] values = new byte[Oracle.SIZE];
+   private double[] x_wins = new double[Oracle.SIZE];
+   private double[] o_wins = new double[Oracle.SIZE];
+   // For exploit: the square it plays (-1 if it isn't its turn, or the game is over).
+   private byte[] exploit_squares = new byte[Oracle.SIZE];
+   
+   private int positions = 0;
+   
+   // Solves every position up front.
+   public OutcomeAnalyzer(Model x_player, Model o_player) {
+      x_model = x_player;
+      o_model = o_player;
+      solve(0, 0);
+   }
+   
+   private int solve(int x_mask, int o_mask) {
+      int key = Bitboard.encode(x_mask, o_mask);
+      if(solved[key]) {
+         return key;
+      }
+      solved[key] = true;
+      positions++;
+      exploit_squares[key] = -1;
+      
+      if(Bitboard.is_win(x_mask)) {
+         values[key] = (byte)Node.Values.WIN.ordinal();
+         x_wins[key] = 1;
+         return key;
+      }
+      if(Bitboard.is_win(o_mask)) {
+         values[key] = (byte)Node.Values.LOSS.ordinal();
+         o_wins[key] = 1;
+         return key;
+      }
+      int empty = ~(x_mask | o_mask) & Bitboard.FULL;
+      if(empty == 0) {
+         values[key] = (byte)Node.Values.DRAW.ordinal();
+         return key;
+      }
+      
+      boolean is_X_turn = Integer.bitCount(x_mask) == Integer.bitCount(o_mask);
+      int[] children = new int[9];
+      int moves = 0;
+      for(int open = empty; open != 0; open &= open - 1) {
+         int square = 1 << Integer.numberOfTrailingZeros(open);
+         children[moves++] = is_X_turn ? solve(x_mask | square, o_mask) : solve(x_mask, o_mask | square);
+      }
+      
+      // Minimax value, and how many moves get it.
+      int best = values[children[0]];
+      for(int i = 1; i < moves; i++) {
+         best = is_X_turn ? Math.max(best, values[children[i]]) : Math.min(best, values[children[i]]);
+      }
+      values[key] = (byte)best;
+      int best_count = 0;
+      for(int i = 0; i < moves; i++) {
+         if(values[children[i]] == best) {
+            best_count++;
+         }
+      }
+      
+      Model model = is_X_turn ? x_model : o_model;
+      if(model.exploit) {
+         // Of the best moves, the one with the most wins for this player, then the fewest losses.
+         int pick = -1;
+         int pick_square = -1;
+         int i = 0;
+         for(int open = empty; open != 0; open &= open - 1, i++) {
+            int child = children[i];
+            if(values[child] != best) {
+               continue;
+            }
+            if(pick < 0 || better_for(is_X_turn, child, pick)) {
+               pick = child;
+               pick_square = Integer.numberOfTrailingZeros(open);
+            }
+         }
+         x_wins[key] = x_wins[pick];
+         o_wins[key] = o_wins[pick];
+         exploit_squares[key] = (byte)pick_square;
+         return key;
+      }
+      
+      for(int i = 0; i < moves; i++) {
+         int child = children[i];
+         double chance = model.epsilon / moves + (values[child] == best ? (1 - model.epsilon) / best_count : 0);
+         x_wins[key] += chance * x_wins[child];
+         o_wins[key] += chance * o_wins[child];
+      }
+      return key;
+   }
+   
+   // Whether position a is strictly better than position b for the given player.
+   private boolean better_for(boolean is_X, int a, int b) {
+      double a_wins = is_X ? x_wins[a] : o_wins[a];
+      double b_wins = is_X ? x_wins[b] : o_wins[b];
+      if(a_wins != b_wins) {
+         return a_wins > b_wins;
+      }
+      double a_losses = is_X ? o_wins[a] : x_wins[a];
+      double b_losses = is_X ? o_wins[b] : x_wins[b];
+      return a_losses < b_losses;
+   }
+   
+   private int checked_key(int x_mask, int o_mask) {
+      int key = Bitboard.encode(x_mask, o_mask);
+      if(!solved[key]) {
+         throw new IllegalArgumentException("Not a reachable position: x_mask " + x_mask + ", o_mask " + o_mask);
+      }
+      return key;
+   }
+   
+   public double get_x_win_chance(int x_mask, int o_mask) {
+      return x_wins[checked_key(x_mask, o_mask)];
+   }
+   
+   public double get_o_win_chance(int x_mask, int o_mask) {
+      return o_wins[checked_key(x_mask, o_mask)];
+   }
+   
+   public double get_draw_chance(int x_mask, int o_mask) {
+      int key = checked_key(x_mask, o_mask);
+      return Math.max(0, 1 - x_wins[key] - o_wins[key]);
+   }
+   
+   // The minimax value, from X's perspective.
+   public Node.Values get_value(int x_mask, int o_mask) {
+      return VALUES[values[checked_key(x_mask, o_mask)]];
+   }
+   
+   // The best move against the other side's model: always one of the minimax best moves, so it never gives
+   // anything up against a perfect opponent, but it's the one most likely to win against this one. -1 if the
+   // game is over.
+   public int get_best_against_fallible(int x_mask, int o_mask) {
+      int key = checked_key(x_mask, o_mask);
+      if(exploit_squares[key] >= 0 || Bitboard.is_win(x_mask) || Bitboard.is_win(o_mask)) {
+         return exploit_squares[key];
+      }
+      // This side isn't playing exploit, so look one move ahead with what's been worked out.
+      boolean is_X_turn = Integer.bitCount(x_mask) == Integer.bitCount(o_mask);
+      int pick = -1;
+      int pick_square = -1;
+      for(int open = ~(x_mask | o_mask) & Bitboard.FULL; open != 0; open &= open - 1) {
+         int square = Integer.numberOfTrailingZeros(open);
+         int child = is_X_turn ? Bitboard.encode(x_mask | (1 << square), o_mask) : Bitboard.encode(x_mask, o_mask | (1 << square));
+         if(values[child] == values[key] && (pick < 0 || better_for(is_X_turn, child, pick))) {
+            pick = child;
+            pick_square = square;
+         }
+      }
+      return pick_square;
+   }
+   
+   // How many positions were worked out.
+   public int get_position_count() {
+      return positions;
+   }
+   
+   // Usage: java OutcomeAnalyzer [X model [O model]]
+   // Prints the chances from the empty board, and from each opening move, for the given models (exploit
+   // against random by default), and how long working them out took.
+   public static void main(String[] args) {
+      Model x_model = parse_model(args.length > 0 ? args[0] : "exploit");
+      Model o_model = parse_model(args.length > 1 ? args[1] : "random");
+      
+      // Once to warm up, then timed.
+      new OutcomeAnalyzer(x_model, o_model);
+      long start = System.nanoTime();
+      OutcomeAnalyzer analyzer = new OutcomeAnalyzer(x_model, o_model);
+      long nanos = System.nanoTime() - start;
+      
+      System.out.printf("X %s vs. O %s: %d positions in %.2f ms%n", x_model, o_model, analyzer.get_position_count(), nanos / 1e6);
+      System.out.println("opening   value     X wins    O wins    draws");
+      System.out.printf("  none   %-6s   %7.4f   %7.4f   %7.4f%n", analyzer.get_value(0, 0), analyzer.get_x_win_chance(0, 0),
+         analyzer.get_o_win_chance(0, 0), analyzer.get_draw_chance(0, 0));
+      for(int square = 0; square < 9; square++) {
+         int x_mask = 1 << square;
+         System.out.printf("     %d   %-6s   %7.4f   %7.4f   %7.4f%n", square, analyzer.get_value(x_mask, 0),
+            analyzer.get_x_win_chance(x_mask, 0), analyzer.get_o_win_chance(x_mask, 0), analyzer.get_draw_chance(x_mask, 0));
+      }
+      // Compare with the plain best move (Node.get_best_move, through the Oracle) everywhere.
+      GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+      tree.init_values();
+      Oracle oracle = new Oracle(tree);
+      int different = 0;
+      int moves = 0;
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            int key = Bitboard.encode(x_mask, o_mask);
+            if((x_mask & o_mask) != 0 || !analyzer.solved[key] || analyzer.get_best_against_fallible(x_mask, o_mask) < 0) {
+               continue;
+            }
+            moves++;
+            if(analyzer.get_best_against_fallible(x_mask, o_mask) != oracle.get_best_square(key)) {
+               different++;
+            }
+         }
+      }
+      System.out.println("best move against a fallible opponent differs from get_best_move in " + different + " of " + moves +
+         " positions (from the empty board: " + analyzer.get_best_against_fallible(0, 0) + " vs. " + oracle.get_best_square(0) + ")");
+   }
+
+}
@@ -0,0 +1,199 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Perft.java
+// Counts every position and every finished game, depth by depth, by playing
+// out every move sequence on a SearchBoard. No Node objects are made, so it
+// takes milliseconds instead of seconds and barely uses any memory. The 9
+// opening moves are counted on separate threads and added up at the end. Like
+// GameTree's PRUNED mode, nothing is played past a won game, so the totals are
+// the known ones: 549,946 nodes (move sequences, counting the empty board, so
+// the same position reached in different orders counts more than once) and
+// 255,168 games, of which X wins 131,184, O wins 77,904 and 46,080 are draws.
+// Run it after any change to the solver: it exits with status 1 if the totals
+// are off, and with --tree it checks GameTree's leaf and loss counts too.
+// *****************************************************************************
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Perft {
+
+   public static final long EXPECTED_NODES = 549946;
+   public static final long EXPECTED_GAMES = 255168;
+   public static final long EXPECTED_X_WINS = 131184;
+   public static final long EXPECTED_O_WINS = 77904;
+   public static final long EXPECTED_DRAWS = 46080;
+   
+   // Index d of each array is for positions with d pieces on the board.
+   public static class Counts {
+      public long[] nodes = new long[10];
+      public long[] x_wins = new long[10];
+      public long[] o_wins = new long[10];
+      public long[] draws = new long[10];
+      
+      public void add(Counts other) {
+         for(int d = 0; d < 10; d++) {
+            nodes[d] += other.nodes[d];
+            x_wins[d] += other.x_wins[d];
+            o_wins[d] += other.o_wins[d];
+            draws[d] += other.draws[d];
+         }
+      }
+      
+      public long get_games(int depth) {
+         return x_wins[depth] + o_wins[depth] + draws[depth];
+      }
+      
+      public long get_total_nodes() {
+         return sum(nodes);
+      }
+      
+      public long get_total_games() {
+         return get_total_x_wins() + get_total_o_wins() + get_total_draws();
+      }
+      
+      public long get_total_x_wins() {
+         return sum(x_wins);
+      }
+      
+      public long get_total_o_wins() {
+         return sum(o_wins);
+      }
+      
+      public long get_total_draws() {
+         return sum(draws);
+      }
+      
+      private static long sum(long[] counts) {
+         long total = 0;
+         for(int d = 0; d < counts.length; d++) {
+            total += counts[d];
+         }
+         return total;
+      }
+   }
+   
+   // Counts the whole game, with the opening moves spread over threads (0 for one per core).
+   public static Counts count(int threads) throws InterruptedException {
+      ExecutorService pool = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+      List<Callable<Counts>> openings = new ArrayList<Callable<Counts>>();
+      for(int square = 0; square < 9; square++) {
+         final int opening = square;
+         openings.add(new Callable<Counts>() {
+            public Counts call() {
+               SearchBoard board = new SearchBoard();
+               Counts counts = new Counts();
+               board.make(opening);
+               count(board, counts);
+               return counts;
+            }
+         });
+      }
+      
+      // The empty board itself.
+      Counts total = new Counts();
+      total.nodes[0] = 1;
+      try {
+         for(Future<Counts> future : pool.invokeAll(openings)) {
+            total.add(future.get());
+         }
+      }
+      catch(ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      }
+      finally {
+         pool.shutdown();
+      }
+      return total;
+   }
+   
+   // Counts board's position and everything after it.
+   private static void count(SearchBoard board, Counts counts) {
+      int depth = board.get_move_count();
+      counts.nodes[depth]++;
+      if(board.get_winner() == 1) {
+         counts.x_wins[depth]++;
+         return;
+      }
+      if(board.get_winner() == 2) {
+         counts.o_wins[depth]++;
+         return;
+      }
+      if(depth == 9) {
+         counts.draws[depth]++;
+         return;
+      }
+      for(int empty = board.get_empty_mask(); empty != 0; empty &= empty - 1) {
+         board.make(Integer.numberOfTrailingZeros(empty));
+         count(board, counts);
+         board.unmake();
+      }
+   }
+   
+   public static void print_table(Counts counts) {
+      System.out.printf("%5s %10s %10s %10s %10s %10s%n", "depth", "nodes", "games", "X wins", "O wins", "draws");
+      for(int d = 0; d < 10; d++) {
+         System.out.printf("%5d %10d %10d %10d %10d %10d%n", d, counts.nodes[d], counts.get_games(d), counts.x_wins[d],
+            counts.o_wins[d], counts.draws[d]);
+      }
+      System.out.printf("%5s %10d %10d %10d %10d %10d%n", "total", counts.get_total_nodes(), counts.get_total_games(),
+         counts.get_total_x_wins(), counts.get_total_o_wins(), counts.get_total_draws());
+   }
+   
+   // Prints a line for each total that isn't what it should be. Returns true if they all are.
+   public static boolean check(Counts counts) {
+      boolean ok = true;
+      ok &= check("nodes", counts.get_total_nodes(), EXPECTED_NODES);
+      ok &= check("games", counts.get_total_games(), EXPECTED_GAMES);
+      ok &= check("X wins", counts.get_total_x_wins(), EXPECTED_X_WINS);
+      ok &= check("O wins", counts.get_total_o_wins(), EXPECTED_O_WINS);
+      ok &= check("draws", counts.get_total_draws(), EXPECTED_DRAWS);
+      return ok;
+   }
+   
+   private static boolean check(String name, long actual, long expected) {
+      if(actual != expected) {
+         System.out.println("MISMATCH: " + name + " is " + actual + ", expected " + expected);
+         return false;
+      }
+      return true;
+   }
+   
+   // Usage: java Perft [threads] [--tree]
+   public static void main(String[] args) throws InterruptedException {
+      int threads = 0;
+      boolean tree = false;
+      for(int i = 0; i < args.length; i++) {
+         if(args[i].equals("--tree")) {
+            tree = true;
+         }
+         else {
+            threads = Integer.parseInt(args[i]);
+         }
+      }
+      
+      // Once to warm up, then timed.
+      count(threads);
+      long start = System.nanoTime();
+      Counts counts = count(threads);
+      long nanos = System.nanoTime() - start;
+      print_table(counts);
+      System.out.printf("counted in %.2f ms%n", nanos / 1e6);
+      
+      boolean ok = check(counts);
+      if(tree) {
+         // A TREE-mode GameTree plays past won games, but it stops counting leaves at the first win, so its
+         // leaf and loss counts are the games and O wins above.
+         GameTree game_tree = new GameTree();
+         game_tree.init_values();
+         ok &= check("GameTree leaf count", game_tree.get_leaf_count(), counts.get_total_games());
+         ok &= check("GameTree loss count", game_tree.get_loss_count(), counts.get_total_o_wins());
+      }
+      System.out.println(ok ? "OK" : "FAILED");
+      if(!ok) {
+         System.exit(1);
+      }
+   }
+
+}
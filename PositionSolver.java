@@ -0,0 +1,200 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// PositionSolver.java
+// Solves any position it's handed, without building a tree from the empty
+// board first. The board is checked (the pieces have to add up for whoever's
+// turn it's supposed to be, and nobody can have kept playing after a win),
+// then only the games that can follow from it are searched, with SearchBoard's
+// alpha-beta and a TranspositionTable. So the work depends on how many squares
+// are empty, not on the size of the whole game. The answer is the value, the
+// best move and the principal variation (the rest of the game if both sides
+// play perfectly). Results stay in the table, so a solver that's kept around
+// gets faster, and any number of threads can use the same one.
+// Uses SearchBoard.java, TranspositionTable.java, RetrogradeSolver.is_legal.
+// *****************************************************************************
+
+import java.util.*;
+
+public class PositionSolver {
+
+   private TranspositionTable table;
+   
+   public static class Result {
+      private Node.Values value;
+      private int best_square;
+      private int[] principal_variation;
+      private long nodes;
+      private long nanos;
+      
+      public Result(Node.Values new_value, int square, int[] variation, long node_count, long time_nanos) {
+         value = new_value;
+         best_square = square;
+         principal_variation = variation;
+         nodes = node_count;
+         nanos = time_nanos;
+      }
+      
+      // From X's perspective, like Node.get_value().
+      public Node.Values get_value() {
+         return value;
+      }
+      
+      // The square to fill next, or -1 if the game is already over.
+      public int get_best_square() {
+         return best_square;
+      }
+      
+      // The squares filled from here to the end of the game with perfect play, starting with get_best_square().
+      // Empty if the game is already over.
+      public int[] get_principal_variation() {
+         return principal_variation.clone();
+      }
+      
+      public long get_nodes() {
+         return nodes;
+      }
+      
+      public long get_nanos() {
+         return nanos;
+      }
+      
+      public String toString() {
+         return value + ", best square " + best_square + ", principal variation " + Arrays.toString(principal_variation) +
+            ", " + nodes + " nodes in " + nanos / 1000 + " us";
+      }
+   }
+   
+   public PositionSolver() {
+      this(TranspositionTable.DEFAULT_BITS);
+   }
+   
+   // The table gets 2^table_bits slots.
+   public PositionSolver(int table_bits) {
+      table = new TranspositionTable(table_bits);
+   }
+   
+   // state is a board like Node's (0 empty, 1 X, 2 O).
+   public Result solve(byte[] state, boolean is_X_turn) {
+      if(state == null || state.length != 9) {
+         throw new IllegalArgumentException("A board has 9 squares");
+      }
+      for(int i = 0; i < 9; i++) {
+         if(state[i] < 0 || state[i] > 2) {
+            throw new IllegalArgumentException("Square " + i + " is " + state[i] + "; it has to be 0, 1 or 2");
+         }
+      }
+      return solve(Bitboard.x_mask(state), Bitboard.o_mask(state), is_X_turn);
+   }
+   
+   public Result solve(int x_mask, int o_mask, boolean is_X_turn) {
+      check(x_mask, o_mask, is_X_turn);
+      long start = System.nanoTime();
+      SearchBoard board = new SearchBoard(x_mask, o_mask);
+      
+      if(board.is_over()) {
+         Node.Values value = board.get_winner() == 1 ? Node.Values.WIN : board.get_winner() == 2 ? Node.Values.LOSS : Node.Values.DRAW;
+         return new Result(value, -1, new int[0], 0, System.nanoTime() - start);
+      }
+      
+      Node.Values value = board.to_value(board.alpha_beta(table));
+      long nodes = board.get_nodes();
+      
+      // Follow the best moves to the end. Nearly everything along the way is in the table by now.
+      int[] variation = new int[9 - board.get_move_count()];
+      int length = 0;
+      while(!board.is_over()) {
+         int square = board.best_square(table);
+         nodes += board.get_nodes();
+         variation[length++] = square;
+         board.make(square);
+      }
+      return new Result(value, variation[0], Arrays.copyOf(variation, length), nodes, System.nanoTime() - start);
+   }
+   
+   // Throws an IllegalArgumentException saying what's wrong if this can't come up in a real game.
+   public static void check(int x_mask, int o_mask, boolean is_X_turn) {
+      if((x_mask & ~Bitboard.FULL) != 0 || (o_mask & ~Bitboard.FULL) != 0) {
+         throw new IllegalArgumentException("Masks only have 9 squares: x_mask " + x_mask + ", o_mask " + o_mask);
+      }
+      if((x_mask & o_mask) != 0) {
+         throw new IllegalArgumentException("X and O are both on square " + Integer.numberOfTrailingZeros(x_mask & o_mask));
+      }
+      if(!RetrogradeSolver.is_legal(x_mask, o_mask)) {
+         throw new IllegalArgumentException("This board can't come up in a game (X goes first, and nobody plays after a win)");
+      }
+      if(is_X_turn != (Integer.bitCount(x_mask) == Integer.bitCount(o_mask))) {
+         throw new IllegalArgumentException("With " + Integer.bitCount(x_mask) + " X's and " + Integer.bitCount(o_mask) +
+            " O's, it's " + (is_X_turn ? "O" : "X") + "'s turn");
+      }
+   }
+   
+   // A board written like GameServer's: 9 characters, square 0 first, each one X, O or '.'.
+   public static byte[] parse_board(String board) {
+      if(board.length() != 9) {
+         throw new IllegalArgumentException("A board has 9 squares: " + board);
+      }
+      byte[] state = new byte[9];
+      for(int i = 0; i < 9; i++) {
+         char c = Character.toUpperCase(board.charAt(i));
+         if(c == 'X') {
+            state[i] = 1;
+         }
+         else if(c == 'O') {
+            state[i] = 2;
+         }
+         else if(c != '.' && c != '-' && c != '_') {
+            throw new IllegalArgumentException("Square " + i + " is '" + board.charAt(i) + "'; use X, O or .");
+         }
+      }
+      return state;
+   }
+   
+   // Usage: java PositionSolver <board> [X|O]
+   //        java PositionSolver
+   // The first solves one board (like X...O....), with whoever's turn it is going by the piece count unless
+   // it's given. The second prints the average time to solve a position by how many squares are empty, each
+   // one from scratch with a new, small table.
+   public static void main(String[] args) {
+      if(args.length > 0) {
+         byte[] state = parse_board(args[0]);
+         boolean is_X_turn = args.length > 1 ? args[1].equalsIgnoreCase("X") :
+            Integer.bitCount(Bitboard.x_mask(state)) == Integer.bitCount(Bitboard.o_mask(state));
+         System.out.println(new PositionSolver().solve(state, is_X_turn));
+         return;
+      }
+      
+      List<List<int[]>> by_empty = new ArrayList<List<int[]>>();
+      for(int empty = 0; empty <= 9; empty++) {
+         by_empty.add(new ArrayList<int[]>());
+      }
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) == 0 && RetrogradeSolver.is_legal(x_mask, o_mask) && !Bitboard.is_win(x_mask) &&
+               !Bitboard.is_win(o_mask) && (x_mask | o_mask) != Bitboard.FULL) {
+               by_empty.get(9 - Integer.bitCount(x_mask | o_mask)).add(new int[] {x_mask, o_mask});
+            }
+         }
+      }
+      
+      System.out.println("empty  positions    avg nodes     avg us");
+      for(int round = 0; round < 2; round++) {
+         for(int empty = 1; empty <= 9; empty++) {
+            long nodes = 0;
+            long nanos = 0;
+            for(int[] position : by_empty.get(empty)) {
+               Result result = new PositionSolver(10).solve(position[0], position[1],
+                  Integer.bitCount(position[0]) == Integer.bitCount(position[1]));
+               nodes += result.get_nodes();
+               nanos += result.get_nanos();
+            }
+            // The first round is only to warm up.
+            if(round == 1) {
+               int count = by_empty.get(empty).size();
+               System.out.printf("%5d %10d %12.1f %10.2f%n", empty, count, (double)nodes / count, nanos / 1e3 / count);
+            }
+         }
+      }
+   }
+
+}
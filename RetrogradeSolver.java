@@ -0,0 +1,222 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// RetrogradeSolver.java
+// Solves 3x3 Tic-Tac-Toe backwards instead of top-down. It lists every legal
+// position straight from the bitmasks, marks the finished ones, and then works
+// back from the wins and losses: a position is won if some move reaches a
+// position lost for the other player, and lost once every move reaches a
+// position won for the other player. Whatever is left at the end is a draw.
+// There's no recursion and no tree of Node objects, just a work queue and a
+// few arrays indexed by the base-3 key (see Bitboard.encode).
+// It also keeps the number of moves until the game is decided, so it picks
+// the fastest win and the slowest loss.
+// *****************************************************************************
+
+import java.util.*;
+
+public class RetrogradeSolver {
+
+   private static final Node.Values[] VALUES = Node.Values.values();
+   
+   // For each key: ordinal of the value (from X's perspective), or -1 if the position isn't legal.
+   private byte[] values = new byte[Oracle.SIZE];
+   // Moves left until the game ends with perfect play.
+   private byte[] distances = new byte[Oracle.SIZE];
+   // Square to fill next, or -1 for a finished game.
+   private byte[] best_squares = new byte[Oracle.SIZE];
+   // How many moves from this position still lead somewhere not known to be won for the other player.
+   private byte[] unresolved = new byte[Oracle.SIZE];
+   
+   // The masks for each key, so they don't have to be worked out again.
+   private short[] x_masks = new short[Oracle.SIZE];
+   private short[] o_masks = new short[Oracle.SIZE];
+   
+   private int legal_count = 0;
+   
+   public RetrogradeSolver() {
+      Arrays.fill(values, (byte)-1);
+      Arrays.fill(best_squares, (byte)-1);
+      
+      // The queue holds positions whose value is decided as a win or loss, in order of distance.
+      int[] queue = new int[Oracle.SIZE];
+      int head = 0;
+      int tail = 0;
+      
+      // Find every legal position, and start the queue with the finished games.
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) != 0 || !is_legal(x_mask, o_mask)) {
+               continue;
+            }
+            int key = Bitboard.encode(x_mask, o_mask);
+            x_masks[key] = (short)x_mask;
+            o_masks[key] = (short)o_mask;
+            legal_count++;
+            
+            if(Bitboard.is_win(x_mask)) {
+               values[key] = (byte)Node.Values.WIN.ordinal();
+               queue[tail++] = key;
+            }
+            else if(Bitboard.is_win(o_mask)) {
+               values[key] = (byte)Node.Values.LOSS.ordinal();
+               queue[tail++] = key;
+            }
+            else if((x_mask | o_mask) == Bitboard.FULL) {
+               values[key] = (byte)Node.Values.DRAW.ordinal();
+            }
+            else {
+               unresolved[key] = (byte)(9 - Integer.bitCount(x_mask | o_mask));
+            }
+         }
+      }
+      
+      // Work backwards from each decided position to every position that could have come right before it.
+      while(head < tail) {
+         int key = queue[head++];
+         int x_mask = x_masks[key];
+         int o_mask = o_masks[key];
+         boolean X_moved_last = Integer.bitCount(x_mask) > Integer.bitCount(o_mask);
+         int last_pieces = X_moved_last ? x_mask : o_mask;
+         
+         // Whoever moved last (the one moving in the earlier position) wins here if the value went their way.
+         boolean mover_wins = values[key] == (X_moved_last ? Node.Values.WIN : Node.Values.LOSS).ordinal();
+         
+         for(int i = 0; i < 9; i++) {
+            int square = 1 << i;
+            if((last_pieces & square) == 0) {
+               continue;
+            }
+            int before_x = X_moved_last ? x_mask & ~square : x_mask;
+            int before_o = X_moved_last ? o_mask : o_mask & ~square;
+            if(Bitboard.is_win(before_x) || Bitboard.is_win(before_o)) {
+               continue;
+            }
+            int before = Bitboard.encode(before_x, before_o);
+            if(values[before] != -1) {
+               continue;
+            }
+            
+            // A winning move decides the earlier position right away. The queue is in order of distance, so
+            // the first one found is the fastest.
+            if(mover_wins) {
+               values[before] = values[key];
+               distances[before] = (byte)(distances[key] + 1);
+               best_squares[before] = (byte)i;
+               queue[tail++] = before;
+            }
+            
+            // A losing move only decides it once every other move loses too. This is the last of them, so
+            // it's the one that takes longest.
+            else if(--unresolved[before] == 0) {
+               values[before] = values[key];
+               distances[before] = (byte)(distances[key] + 1);
+               best_squares[before] = (byte)i;
+               queue[tail++] = before;
+            }
+         }
+      }
+      
+      // Anything still undecided is a draw (anything legal and unfinished has a nonzero unresolved count until it's
+      // decided). Play any move that doesn't lose, and the game goes to a full board.
+      for(int key = 0; key < Oracle.SIZE; key++) {
+         if(values[key] == -1 && unresolved[key] > 0) {
+            values[key] = (byte)Node.Values.DRAW.ordinal();
+            distances[key] = (byte)(9 - Integer.bitCount(x_masks[key] | o_masks[key]));
+         }
+      }
+      for(int key = 0; key < Oracle.SIZE; key++) {
+         if(values[key] == Node.Values.DRAW.ordinal() && (x_masks[key] | o_masks[key]) != Bitboard.FULL) {
+            best_squares[key] = (byte)find_drawing_move(key);
+         }
+      }
+   }
+   
+   // Legal means it can come up in a real game: X went first, nobody kept playing after a win, and the winner's
+   // last move could have been the one that won.
+   public static boolean is_legal(int x_mask, int o_mask) {
+      int x_count = Integer.bitCount(x_mask);
+      int o_count = Integer.bitCount(o_mask);
+      if(x_count != o_count && x_count != o_count + 1) {
+         return false;
+      }
+      boolean x_won = Bitboard.is_win(x_mask);
+      boolean o_won = Bitboard.is_win(o_mask);
+      if(x_won && o_won) {
+         return false;
+      }
+      if(!x_won && !o_won) {
+         return true;
+      }
+      if((x_won && x_count != o_count + 1) || (o_won && x_count != o_count)) {
+         return false;
+      }
+      
+      // Some piece of the winner has to be one whose removal leaves nobody having won yet.
+      int winner = x_won ? x_mask : o_mask;
+      for(int i = 0; i < 9; i++) {
+         if((winner & (1 << i)) != 0 && !Bitboard.is_win(winner & ~(1 << i))) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   private int find_drawing_move(int key) {
+      int x_mask = x_masks[key];
+      int o_mask = o_masks[key];
+      boolean is_X_turn = Integer.bitCount(x_mask) == Integer.bitCount(o_mask);
+      for(int i = 0; i < 9; i++) {
+         int square = 1 << i;
+         if(((x_mask | o_mask) & square) == 0) {
+            int after = is_X_turn ? Bitboard.encode(x_mask | square, o_mask) : Bitboard.encode(x_mask, o_mask | square);
+            if(values[after] == Node.Values.DRAW.ordinal()) {
+               return i;
+            }
+         }
+      }
+      return -1;
+   }
+   
+   // How many legal positions there are (5,478).
+   public int get_legal_count() {
+      return legal_count;
+   }
+   
+   public Node.Values get_value(int key) {
+      return values[key] < 0 ? null : VALUES[values[key]];
+   }
+   
+   public int get_best_square(int key) {
+      return best_squares[key];
+   }
+   
+   // Moves until the game is over with perfect play from here.
+   public int get_distance(int key) {
+      return distances[key];
+   }
+   
+   // Solves both ways, checks that every value agrees with GameTree.init_values, and prints the times.
+   public static void main(String[] args) {
+      long start = System.nanoTime();
+      RetrogradeSolver retrograde = new RetrogradeSolver();
+      long retrograde_nanos = System.nanoTime() - start;
+      
+      start = System.nanoTime();
+      GameTree tree = new GameTree();
+      tree.init_values();
+      long tree_nanos = System.nanoTime() - start;
+      Oracle oracle = new Oracle(tree);
+      
+      int mismatches = 0;
+      for(int key = 0; key < Oracle.SIZE; key++) {
+         if(retrograde.get_value(key) != oracle.get_value(key)) {
+            mismatches++;
+         }
+      }
+      System.out.printf("retrograde: %d positions in %.1f ms%n", retrograde.get_legal_count(), retrograde_nanos / 1e6);
+      System.out.printf("GameTree:   %d nodes in %.1f ms%n", tree.get_node_count() + 1, tree_nanos / 1e6);
+      System.out.println(mismatches == 0 ? "values match" : mismatches + " values differ");
+   }
+
+}
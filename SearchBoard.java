@@ -0,0 +1,379 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// SearchBoard.java
+// One mutable 3x3 board for searching without making any objects. Moves are
+// made and taken back in place, and for each of the 8 lines it keeps how many
+// X's and O's are in it, so checking for a win after a move only looks at the
+// 2 to 4 lines through that square. It also keeps a Zobrist hash up to date
+// for the TranspositionTable. The searches here (plain minimax and alpha-beta,
+// with or without a table) only use ints on the stack, so they never make
+// objects. Square numbering and masks are the same as Bitboard.java.
+// *****************************************************************************
+
+public class SearchBoard {
+
+   // LINES_THROUGH[square] is every line (index into Bitboard.LINES) that square is in.
+   private static final int[][] LINES_THROUGH = new int[9][];
+   
+   static {
+      for(int square = 0; square < 9; square++) {
+         int count = 0;
+         for(int line = 0; line < Bitboard.LINES.length; line++) {
+            if((Bitboard.LINES[line] & (1 << square)) != 0) {
+               count++;
+            }
+         }
+         LINES_THROUGH[square] = new int[count];
+         count = 0;
+         for(int line = 0; line < Bitboard.LINES.length; line++) {
+            if((Bitboard.LINES[line] & (1 << square)) != 0) {
+               LINES_THROUGH[square][count++] = line;
+            }
+         }
+      }
+   }
+   
+   // Center, then corners, then edges. Used by the alpha-beta search.
+   private static final int[] MOVE_ORDER = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+   
+   private int x_mask = 0;
+   private int o_mask = 0;
+   private byte[] x_in_line = new byte[Bitboard.LINES.length];
+   private byte[] o_in_line = new byte[Bitboard.LINES.length];
+   private long hash = 0;
+   
+   // The squares played so far, in order, so unmake() knows what to take back.
+   private int[] moves = new int[9];
+   private int move_count = 0;
+   
+   // 0 if nobody has won, 1 if X has, 2 if O has. won_at is the move_count right after the winning move.
+   private int winner = 0;
+   private int won_at = -1;
+   
+   // Node count for the last search.
+   private long nodes = 0;
+   
+   public SearchBoard() {
+   }
+   
+   // Starts from any position. It's X's turn if both sides have the same number of pieces.
+   public SearchBoard(int new_x_mask, int new_o_mask) {
+      set_position(new_x_mask, new_o_mask);
+   }
+   
+   // Recounts everything from scratch, so this isn't for the hot path. The move history starts over, so
+   // unmake() can't go back past here.
+   public void set_position(int new_x_mask, int new_o_mask) {
+      x_mask = new_x_mask;
+      o_mask = new_o_mask;
+      move_count = Integer.bitCount(x_mask | o_mask);
+      hash = Zobrist.hash(x_mask, o_mask);
+      winner = 0;
+      won_at = -1;
+      for(int line = 0; line < Bitboard.LINES.length; line++) {
+         x_in_line[line] = (byte)Integer.bitCount(x_mask & Bitboard.LINES[line]);
+         o_in_line[line] = (byte)Integer.bitCount(o_mask & Bitboard.LINES[line]);
+         if(x_in_line[line] == 3) {
+            winner = 1;
+         }
+         else if(o_in_line[line] == 3) {
+            winner = 2;
+         }
+      }
+      if(winner != 0) {
+         won_at = move_count;
+      }
+   }
+   
+   // Fills square for whoever's turn it is. The square has to be empty.
+   public void make(int square) {
+      int bit = 1 << square;
+      int[] lines = LINES_THROUGH[square];
+      if(is_X_turn()) {
+         x_mask |= bit;
+         hash ^= Zobrist.x_key(square);
+         for(int i = 0; i < lines.length; i++) {
+            if(++x_in_line[lines[i]] == 3 && winner == 0) {
+               winner = 1;
+               won_at = move_count + 1;
+            }
+         }
+      }
+      else {
+         o_mask |= bit;
+         hash ^= Zobrist.o_key(square);
+         for(int i = 0; i < lines.length; i++) {
+            if(++o_in_line[lines[i]] == 3 && winner == 0) {
+               winner = 2;
+               won_at = move_count + 1;
+            }
+         }
+      }
+      moves[move_count++] = square;
+   }
+   
+   // Takes back the last move.
+   public void unmake() {
+      if(move_count == won_at) {
+         winner = 0;
+         won_at = -1;
+      }
+      int square = moves[--move_count];
+      int bit = 1 << square;
+      int[] lines = LINES_THROUGH[square];
+      if((x_mask & bit) != 0) {
+         x_mask &= ~bit;
+         hash ^= Zobrist.x_key(square);
+         for(int i = 0; i < lines.length; i++) {
+            x_in_line[lines[i]]--;
+         }
+      }
+      else {
+         o_mask &= ~bit;
+         hash ^= Zobrist.o_key(square);
+         for(int i = 0; i < lines.length; i++) {
+            o_in_line[lines[i]]--;
+         }
+      }
+   }
+   
+   public boolean is_X_turn() {
+      return (move_count & 1) == 0;
+   }
+   
+   public int get_winner() {
+      return winner;
+   }
+   
+   public boolean is_over() {
+      return winner != 0 || move_count == 9;
+   }
+   
+   public int get_x_mask() {
+      return x_mask;
+   }
+   
+   public int get_o_mask() {
+      return o_mask;
+   }
+   
+   public int get_empty_mask() {
+      return ~(x_mask | o_mask) & Bitboard.FULL;
+   }
+   
+   public long get_hash() {
+      return hash;
+   }
+   
+   public int get_move_count() {
+      return move_count;
+   }
+   
+   public long get_nodes() {
+      return nodes;
+   }
+   
+   // Plain minimax over every move, like Node.set_value but without a tree. Returns 1 if the player to move
+   // wins, 0 for a draw, -1 if they lose.
+   public int minimax() {
+      nodes = 0;
+      return minimax_helper();
+   }
+   
+   private int minimax_helper() {
+      nodes++;
+      if(winner != 0) {
+         // Whoever just moved won, so the player to move lost.
+         return -1;
+      }
+      if(move_count == 9) {
+         return 0;
+      }
+      int best = -1;
+      for(int empty = get_empty_mask(); empty != 0; empty &= empty - 1) {
+         make(Integer.numberOfTrailingZeros(empty));
+         int score = -minimax_helper();
+         unmake();
+         if(score > best) {
+            best = score;
+         }
+      }
+      return best;
+   }
+   
+   // Alpha-beta with center/corner/edge ordering. Same scores as minimax().
+   public int alpha_beta() {
+      nodes = 0;
+      return alpha_beta_helper(-1, 1);
+   }
+   
+   private int alpha_beta_helper(int alpha, int beta) {
+      nodes++;
+      if(winner != 0) {
+         return -1;
+      }
+      if(move_count == 9) {
+         return 0;
+      }
+      int empty = get_empty_mask();
+      int best = -1;
+      for(int i = 0; i < MOVE_ORDER.length; i++) {
+         int square = MOVE_ORDER[i];
+         if((empty & (1 << square)) == 0) {
+            continue;
+         }
+         make(square);
+         int score = -alpha_beta_helper(-beta, -alpha);
+         unmake();
+         if(score > best) {
+            best = score;
+            if(best > alpha) {
+               alpha = best;
+               if(alpha >= beta) {
+                  break;
+               }
+            }
+         }
+      }
+      return best;
+   }
+   
+   // Alpha-beta that checks table before searching a position and saves what it found after. The table can be
+   // shared with other threads searching at the same time. Same scores as minimax().
+   public int alpha_beta(TranspositionTable table) {
+      nodes = 0;
+      return alpha_beta_helper(-1, 1, table);
+   }
+   
+   private int alpha_beta_helper(int alpha, int beta, TranspositionTable table) {
+      nodes++;
+      if(winner != 0) {
+         return -1;
+      }
+      if(move_count == 9) {
+         return 0;
+      }
+      
+      // Every search here goes to the end of the game, so any entry for this position is deep enough.
+      int hint = -1;
+      long entry = table.probe(hash);
+      if(entry != TranspositionTable.MISS) {
+         int score = TranspositionTable.score_of(entry);
+         int bound = TranspositionTable.bound_of(entry);
+         if(bound == TranspositionTable.EXACT
+            || (bound == TranspositionTable.LOWER && score >= beta)
+            || (bound == TranspositionTable.UPPER && score <= alpha)) {
+            return score;
+         }
+         hint = TranspositionTable.square_of(entry);
+      }
+      
+      int original_alpha = alpha;
+      int empty = get_empty_mask();
+      int best = -2;
+      int best_square = -1;
+      // The table's best move goes first, then the usual order.
+      for(int i = -1; i < MOVE_ORDER.length; i++) {
+         int square = i < 0 ? hint : MOVE_ORDER[i];
+         if(square < 0 || (empty & (1 << square)) == 0 || (i >= 0 && square == hint)) {
+            continue;
+         }
+         make(square);
+         int score = -alpha_beta_helper(-beta, -alpha, table);
+         unmake();
+         if(score > best) {
+            best = score;
+            best_square = square;
+            if(best > alpha) {
+               alpha = best;
+               if(alpha >= beta) {
+                  break;
+               }
+            }
+         }
+      }
+      
+      int bound = best <= original_alpha ? TranspositionTable.UPPER : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+      table.store(hash, best, bound, best_square, 9 - move_count);
+      return best;
+   }
+   
+   // The first square (in center/corner/edge order) that gets the best result, or -1 if the game is over.
+   public int best_square() {
+      return best_square(null);
+   }
+   
+   // Same, but searching with table (which can be null).
+   public int best_square(TranspositionTable table) {
+      if(is_over()) {
+         return -1;
+      }
+      long total = 0;
+      int best = -2;
+      int best_square = -1;
+      int empty = get_empty_mask();
+      for(int i = 0; i < MOVE_ORDER.length; i++) {
+         int square = MOVE_ORDER[i];
+         if((empty & (1 << square)) == 0) {
+            continue;
+         }
+         make(square);
+         nodes = 0;
+         int score = table == null ? -alpha_beta_helper(-1, Math.min(1, -best)) : -alpha_beta_helper(-1, Math.min(1, -best), table);
+         total += nodes;
+         unmake();
+         if(score > best) {
+            best = score;
+            best_square = square;
+         }
+         if(best == 1) {
+            break;
+         }
+      }
+      nodes = total;
+      return best_square;
+   }
+   
+   // Turns a score from the player to move into a Node.Values from X's perspective.
+   public Node.Values to_value(int score) {
+      if(score == 0) {
+         return Node.Values.DRAW;
+      }
+      return (score > 0) == is_X_turn() ? Node.Values.WIN : Node.Values.LOSS;
+   }
+   
+   // Runs a full minimax from the empty board both ways (this board, and building and solving a GameTree) and
+   // prints how fast each one was.
+   public static void main(String[] args) {
+      SearchBoard board = new SearchBoard();
+      for(int warmup = 0; warmup < 5; warmup++) {
+         board.minimax();
+      }
+      long start = System.nanoTime();
+      int score = board.minimax();
+      long nanos = System.nanoTime() - start;
+      System.out.printf("SearchBoard minimax:   %s, %d nodes in %.1f ms (%.0f nodes/sec)%n", board.to_value(score),
+         board.get_nodes(), nanos / 1e6, board.get_nodes() * 1e9 / nanos);
+      
+      start = System.nanoTime();
+      score = board.alpha_beta();
+      nanos = System.nanoTime() - start;
+      System.out.printf("SearchBoard alpha-beta: %s, %d nodes in %.2f ms%n", board.to_value(score), board.get_nodes(), nanos / 1e6);
+      
+      TranspositionTable table = new TranspositionTable();
+      start = System.nanoTime();
+      score = board.alpha_beta(table);
+      nanos = System.nanoTime() - start;
+      System.out.printf("SearchBoard alpha-beta with a table: %s, %d nodes in %.2f ms%n", board.to_value(score), board.get_nodes(),
+         nanos / 1e6);
+      
+      start = System.nanoTime();
+      GameTree tree = new GameTree(GameTree.BuildMode.TREE);
+      tree.init_values();
+      nanos = System.nanoTime() - start;
+      System.out.printf("GameTree (TREE):       %s, %d nodes in %.1f ms%n", tree.get_root().get_value(),
+         tree.get_node_count() + 1, nanos / 1e6);
+   }
+
+}
@@ -0,0 +1,300 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// SearchEngine.java
+// Solves positions of any m,n,k game (see MNKGame.java) without building the
+// game tree. It's an alpha-beta search with iterative deepening: search 1 move
+// ahead, then 2, and so on, until the whole game has been searched or the node
+// or time budget runs out. Results use the same Node.Values verdict as the
+// GameTree solver. 3x3 Tic-Tac-Toe is just MNKGame.STANDARD, which is how a
+// LAZY GameTree solves its nodes (see NodeCache.java). The other build modes
+// still build and solve the whole tree with Node.
+// *****************************************************************************
+
+import java.util.*;
+
+public class SearchEngine {
+
+   // Score for winning right now. Wins further away score a little less (one point per move), so the
+   // search prefers the fastest win and the slowest loss. Heuristic scores stay far below this.
+   private static final int WIN_SCORE = 1000000;
+   private static final int INFINITY = WIN_SCORE + 1;
+   
+   // How often (in nodes) to look at the clock.
+   private static final int CLOCK_CHECK = 1024;
+   
+   private MNKGame game;
+   private long node_budget = Long.MAX_VALUE;
+   private long time_budget = Long.MAX_VALUE;
+   
+   // State for the search in progress.
+   private long nodes;
+   private long deadline;
+   private boolean out_of_budget;
+   private boolean hit_horizon;
+   
+   // move_lists[ply] holds the ordered moves at that ply, so generating moves doesn't allocate.
+   private int[][] move_lists;
+   private int[] move_scores;
+   
+   // History heuristic: moves that caused cutoffs before get tried first next time.
+   private int[] history;
+   
+   // What search() hands back.
+   public static class Result {
+      private Node.Values value;
+      private int best_square;
+      private int depth;
+      private long nodes;
+      private boolean exact;
+      
+      public Result(Node.Values new_value, int square, int search_depth, long node_count, boolean is_exact) {
+         value = new_value;
+         best_square = square;
+         depth = search_depth;
+         nodes = node_count;
+         exact = is_exact;
+      }
+      
+      // From X's perspective, like Node.get_value(). If is_exact() is false, this is only the engine's
+      // best guess: WIN or LOSS are still proven, but DRAW just means nobody was found to be winning.
+      public Node.Values get_value() {
+         return value;
+      }
+      
+      // The square to fill next, or -1 if the game is already over.
+      public int get_best_square() {
+         return best_square;
+      }
+      
+      // How many moves ahead the last finished iteration looked.
+      public int get_depth() {
+         return depth;
+      }
+      
+      public long get_nodes() {
+         return nodes;
+      }
+      
+      public boolean is_exact() {
+         return exact;
+      }
+   }
+   
+   public SearchEngine(MNKGame new_game) {
+      game = new_game;
+      int size = game.get_size();
+      move_lists = new int[size + 1][size];
+      move_scores = new int[size];
+      history = new int[size];
+   }
+   
+   public MNKGame get_game() {
+      return game;
+   }
+   
+   // Stop after about this many nodes. Long.MAX_VALUE (the default) means no limit.
+   public void set_node_budget(long max_nodes) {
+      node_budget = max_nodes;
+   }
+   
+   // Stop after about this many milliseconds. Long.MAX_VALUE (the default) means no limit.
+   public void set_time_budget(long millis) {
+      time_budget = millis;
+   }
+   
+   // Searches the position and returns the verdict and best move for whoever's turn it is. X always
+   // goes first, so it's X's turn when both have the same number of pieces.
+   public Result search(long x_mask, long o_mask) {
+      int x_count = Long.bitCount(x_mask);
+      int o_count = Long.bitCount(o_mask);
+      if((x_mask & o_mask) != 0 || (x_mask | o_mask) != ((x_mask | o_mask) & game.get_full())
+         || x_count - o_count < 0 || x_count - o_count > 1) {
+         
+         throw new IllegalArgumentException("Not a legal position for " + game);
+      }
+      
+      boolean is_X_turn = x_count == o_count;
+      long me = is_X_turn ? x_mask : o_mask;
+      long them = is_X_turn ? o_mask : x_mask;
+      
+      if(game.is_win(x_mask)) {
+         return new Result(Node.Values.WIN, -1, 0, 0, true);
+      }
+      else if(game.is_win(o_mask)) {
+         return new Result(Node.Values.LOSS, -1, 0, 0, true);
+      }
+      else if((x_mask | o_mask) == game.get_full()) {
+         return new Result(Node.Values.DRAW, -1, 0, 0, true);
+      }
+      
+      nodes = 0;
+      out_of_budget = false;
+      long now = System.currentTimeMillis();
+      deadline = time_budget > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + time_budget;
+      Arrays.fill(history, 0);
+      
+      int empties = game.get_size() - x_count - o_count;
+      int pv_square = -1;
+      int pv_score = 0;
+      int finished_depth = 0;
+      boolean exact = false;
+      
+      for(int depth = 1; depth <= empties && !exact; depth++) {
+         hit_horizon = false;
+         int count = order_moves(me, them, 0, pv_square);
+         int[] moves = move_lists[0];
+         
+         int alpha = -INFINITY;
+         int best_square = -1;
+         for(int i = 0; i < count; i++) {
+            long bit = 1L << moves[i];
+            int score = -negamax(them, me | bit, depth - 1, 1, -INFINITY, -alpha);
+            if(out_of_budget) {
+               break;
+            }
+            if(score > alpha) {
+               alpha = score;
+               best_square = moves[i];
+            }
+         }
+         
+         // An unfinished iteration can't be trusted, so fall back on the last finished one. If not even
+         // depth 1 finished, take whatever the partial search liked (or just the first move).
+         if(out_of_budget) {
+            if(pv_square == -1) {
+               pv_square = best_square != -1 ? best_square : moves[0];
+               pv_score = best_square != -1 ? alpha : 0;
+            }
+            break;
+         }
+         
+         pv_square = best_square;
+         pv_score = alpha;
+         finished_depth = depth;
+         
+         // Done if nothing was cut off at the horizon, or if a forced win or loss was found (a faster one
+         // would already have shown up at this depth).
+         exact = !hit_horizon || Math.abs(alpha) > WIN_SCORE - game.get_size() - 1;
+      }
+      
+      Node.Values verdict = Node.Values.DRAW;
+      if(pv_score > WIN_SCORE - game.get_size() - 1) {
+         verdict = is_X_turn ? Node.Values.WIN : Node.Values.LOSS;
+      }
+      else if(pv_score < -(WIN_SCORE - game.get_size() - 1)) {
+         verdict = is_X_turn ? Node.Values.LOSS : Node.Values.WIN;
+      }
+      return new Result(verdict, pv_square, finished_depth, nodes, exact);
+   }
+   
+   // Score from the point of view of the player to move (me). them just moved.
+   private int negamax(long me, long them, int depth, int ply, int alpha, int beta) {
+      nodes++;
+      if(nodes >= node_budget || (nodes % CLOCK_CHECK == 0 && System.currentTimeMillis() >= deadline)) {
+         out_of_budget = true;
+         return 0;
+      }
+      
+      if(game.is_win(them)) {
+         return -(WIN_SCORE - ply);
+      }
+      if((me | them) == game.get_full()) {
+         return 0;
+      }
+      if(depth == 0) {
+         hit_horizon = true;
+         return evaluate(me, them);
+      }
+      
+      int count = order_moves(me, them, ply, -1);
+      int[] moves = move_lists[ply];
+      int best = -INFINITY;
+      for(int i = 0; i < count; i++) {
+         long bit = 1L << moves[i];
+         int score = -negamax(them, me | bit, depth - 1, ply + 1, -beta, -alpha);
+         if(out_of_budget) {
+            return 0;
+         }
+         if(score > best) {
+            best = score;
+         }
+         if(score > alpha) {
+            alpha = score;
+         }
+         if(alpha >= beta) {
+            history[moves[i]] += depth * depth;
+            break;
+         }
+      }
+      return best;
+   }
+   
+   // Puts the empty squares in move_lists[ply]: first_square (if it's a legal move), then by history
+   // score, with ties going to whichever is closer to the center. Returns how many there are.
+   private int order_moves(long me, long them, int ply, int first_square) {
+      int[] moves = move_lists[ply];
+      int[] center_order = game.get_center_order();
+      long filled = me | them;
+      int count = 0;
+      for(int i = 0; i < center_order.length; i++) {
+         int square = center_order[i];
+         if((filled & (1L << square)) != 0) {
+            continue;
+         }
+         int score = square == first_square ? Integer.MAX_VALUE : history[square];
+         
+         // Insertion sort. Stable, so equal scores keep the center order.
+         int j = count;
+         while(j > 0 && move_scores[j - 1] < score) {
+            moves[j] = moves[j - 1];
+            move_scores[j] = move_scores[j - 1];
+            j--;
+         }
+         moves[j] = square;
+         move_scores[j] = score;
+         count++;
+      }
+      return count;
+   }
+   
+   // Rough score for a position that wasn't searched to the end. Every line that's still open for only one
+   // player counts for that player, more the more pieces they already have in it.
+   private int evaluate(long me, long them) {
+      int score = 0;
+      long[] lines = game.get_lines();
+      for(int i = 0; i < lines.length; i++) {
+         long mine = me & lines[i];
+         long theirs = them & lines[i];
+         if(theirs == 0 && mine != 0) {
+            score += 1 << (2 * Long.bitCount(mine));
+         }
+         else if(mine == 0 && theirs != 0) {
+            score -= 1 << (2 * Long.bitCount(theirs));
+         }
+      }
+      return score;
+   }
+   
+   // Usage: java SearchEngine [rows cols k [milliseconds]]
+   // Searches the empty board and prints what it found. Defaults to 3x3 with no time limit.
+   public static void main(String[] args) {
+      MNKGame game = MNKGame.STANDARD;
+      SearchEngine engine;
+      if(args.length >= 3) {
+         game = new MNKGame(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+      }
+      engine = new SearchEngine(game);
+      if(args.length >= 4) {
+         engine.set_time_budget(Long.parseLong(args[3]));
+      }
+      
+      long start = System.nanoTime();
+      Result result = engine.search(0, 0);
+      long millis = (System.nanoTime() - start) / 1000000;
+      System.out.println(game + ": " + result.get_value() + (result.is_exact() ? "" : " (not proven)") +
+         ", best square " + result.get_best_square() + ", depth " + result.get_depth() +
+         ", " + result.get_nodes() + " nodes in " + millis + " ms");
+   }
+
+}
@@ -0,0 +1,249 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Simulator.java
+// Plays lots of games without printing anything, all on one shared solved
+// tree (a GameTree, or a TreeSnapshot when there's one to start from), spread
+// over a pool of threads. Each player follows a Policy. The
+// outcomes and game lengths are added up in LongAdders, so the threads never
+// wait on each other. Used for load testing and for checking strategies at
+// scale. Uses GameTree.java, Node.java and TreeSnapshot.java.
+// *****************************************************************************
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Simulator {
+
+   // Games handed to a thread at a time. Big enough that scheduling costs nothing next to the games.
+   private static final int BATCH = 10000;
+   
+   // How a player picks its move. Has to be safe to call from many threads at once.
+   public interface Policy {
+      SolvedPosition choose(SolvedPosition current);
+   }
+   
+   // Always the first best move.
+   public static final Policy OPTIMAL = new Policy() {
+      public SolvedPosition choose(SolvedPosition current) {
+         return current.get_best_move();
+      }
+   };
+   
+   // A random best move.
+   public static final Policy MIXED_OPTIMAL = new Policy() {
+      public SolvedPosition choose(SolvedPosition current) {
+         return current.get_mixed_best_move();
+      }
+   };
+   
+   // Any legal move, all equally likely.
+   public static final Policy RANDOM = new Policy() {
+      public SolvedPosition choose(SolvedPosition current) {
+         return current.get_child(ThreadLocalRandom.current().nextInt(current.get_child_count()));
+      }
+   };
+   
+   // A random move with probability epsilon, otherwise a random best move.
+   public static Policy epsilon_greedy(final double epsilon) {
+      return new Policy() {
+         public SolvedPosition choose(SolvedPosition current) {
+            if(ThreadLocalRandom.current().nextDouble() < epsilon) {
+               return RANDOM.choose(current);
+            }
+            return current.get_mixed_best_move();
+         }
+      };
+   }
+   
+   private SolvedPosition root;
+   private ExecutorService pool;
+   
+   private LongAdder x_wins = new LongAdder();
+   private LongAdder o_wins = new LongAdder();
+   private LongAdder draws = new LongAdder();
+   // lengths[i] is how many games ended after i moves.
+   private LongAdder[] lengths = new LongAdder[10];
+   private long nanos = 0;
+   
+   // tree has to be solved already. threads is the size of the worker pool, or 0 to use a virtual thread per
+   // batch when the JVM has them (Java 21+), falling back on one worker per core.
+   // SYMMETRY, PRUNED and LAZY trees aren't allowed. A SYMMETRY node only has one child per canonical move, so
+   // random and mixed play would pick from the wrong set of moves and skew the numbers. A PRUNED node fills in
+   // the rest of its best moves the first time they're asked for, and a LAZY tree makes and evicts nodes as it
+   // goes, and neither is safe with several threads at once (see Node.complete_best_children and NodeCache).
+   public Simulator(GameTree tree, int threads) {
+      this(checked_root(tree), threads);
+   }
+   
+   // A snapshot has every position solved and every best move in its masks, so it's fine to share.
+   public Simulator(TreeSnapshot snapshot, int threads) {
+      this(snapshot.get_root(), threads);
+   }
+   
+   private Simulator(SolvedPosition new_root, int threads) {
+      root = new_root;
+      for(int i = 0; i < lengths.length; i++) {
+         lengths[i] = new LongAdder();
+      }
+      pool = threads > 0 ? Executors.newFixedThreadPool(threads) : virtual_or_fixed_pool();
+   }
+   
+   // The root of tree, if it's a mode that can be shared between threads and has every legal move (see above).
+   // Also used by GameServer.
+   static SolvedPosition checked_root(GameTree tree) {
+      GameTree.BuildMode mode = tree.get_mode();
+      if(mode == GameTree.BuildMode.SYMMETRY || mode == GameTree.BuildMode.PRUNED || mode == GameTree.BuildMode.LAZY) {
+         throw new IllegalArgumentException("needs a TREE, TRANSPOSITION or PARALLEL tree, not " + mode);
+      }
+      return tree.get_root();
+   }
+   
+   private static ExecutorService virtual_or_fixed_pool() {
+      ExecutorService virtual = virtual_thread_pool();
+      return virtual != null ? virtual : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+   }
+   
+   // A virtual thread per task, or null if the JVM doesn't have them (before Java 21). Found by reflection so
+   // this still compiles for Java 17. Also used by GameServer.
+   static ExecutorService virtual_thread_pool() {
+      try {
+         return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch(ReflectiveOperationException e) {
+         return null;
+      }
+   }
+   
+   // Plays the given number of games and waits for them to finish. Results add on to any earlier runs.
+   public void run(long games, final Policy x_policy, final Policy o_policy) throws InterruptedException {
+      long start = System.nanoTime();
+      
+      ArrayList<Future<?>> batches = new ArrayList<Future<?>>();
+      for(long done = 0; done < games; done += BATCH) {
+         final long count = Math.min(BATCH, games - done);
+         batches.add(pool.submit(new Runnable() {
+            public void run() {
+               for(long i = 0; i < count; i++) {
+                  play_one(x_policy, o_policy);
+               }
+            }
+         }));
+      }
+      for(int i = 0; i < batches.size(); i++) {
+         try {
+            batches.get(i).get();
+         }
+         catch(ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+         }
+      }
+      
+      nanos += System.nanoTime() - start;
+   }
+   
+   private void play_one(Policy x_policy, Policy o_policy) {
+      SolvedPosition current = root;
+      boolean is_X_turn = true;
+      while(!current.is_leaf()) {
+         current = is_X_turn ? x_policy.choose(current) : o_policy.choose(current);
+         is_X_turn = !is_X_turn;
+      }
+      
+      if(current.get_value() == Node.Values.WIN) {
+         x_wins.increment();
+      }
+      else if(current.get_value() == Node.Values.LOSS) {
+         o_wins.increment();
+      }
+      else {
+         draws.increment();
+      }
+      lengths[current.get_depth()].increment();
+   }
+   
+   public void shutdown() {
+      pool.shutdown();
+   }
+   
+   public long get_x_wins() {
+      return x_wins.sum();
+   }
+   
+   public long get_o_wins() {
+      return o_wins.sum();
+   }
+   
+   public long get_draws() {
+      return draws.sum();
+   }
+   
+   // How many games ended after exactly moves moves (5 to 9).
+   public long get_length_count(int moves) {
+      return lengths[moves].sum();
+   }
+   
+   public long get_games() {
+      return get_x_wins() + get_o_wins() + get_draws();
+   }
+   
+   public double get_games_per_second() {
+      return nanos == 0 ? 0 : get_games() * 1e9 / nanos;
+   }
+   
+   public void print_report() {
+      long games = get_games();
+      System.out.println("games:     " + games);
+      System.out.printf("X wins:    %d (%.2f%%)%n", get_x_wins(), 100.0 * get_x_wins() / games);
+      System.out.printf("O wins:    %d (%.2f%%)%n", get_o_wins(), 100.0 * get_o_wins() / games);
+      System.out.printf("draws:     %d (%.2f%%)%n", get_draws(), 100.0 * get_draws() / games);
+      System.out.println("length:    count");
+      for(int moves = 5; moves < lengths.length; moves++) {
+         System.out.println("   " + moves + "       " + get_length_count(moves));
+      }
+      System.out.printf("games/sec: %.0f%n", get_games_per_second());
+   }
+   
+   // optimal, mixed, random, or epsilon:<probability> (like epsilon:0.1)
+   public static Policy parse_policy(String name) {
+      if(name.equals("optimal")) {
+         return OPTIMAL;
+      }
+      else if(name.equals("mixed")) {
+         return MIXED_OPTIMAL;
+      }
+      else if(name.equals("random")) {
+         return RANDOM;
+      }
+      else if(name.startsWith("epsilon:")) {
+         return epsilon_greedy(Double.parseDouble(name.substring("epsilon:".length())));
+      }
+      throw new IllegalArgumentException("Unknown policy: " + name);
+   }
+   
+   // Usage: java Simulator [games [X policy [O policy [threads]]]]
+   // Defaults to a million games of mixed vs. random on virtual threads (or one thread per core).
+   public static void main(String[] args) throws InterruptedException {
+      long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+      Policy x_policy = parse_policy(args.length > 1 ? args[1] : "mixed");
+      Policy o_policy = parse_policy(args.length > 2 ? args[2] : "random");
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+      
+      Simulator simulator;
+      TreeSnapshot snapshot = TreeSnapshot.load_if_present(Paths.get(TreeSnapshot.DEFAULT_FILE));
+      if(snapshot != null) {
+         simulator = new Simulator(snapshot, threads);
+      }
+      else {
+         GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+         tree.init_values();
+         simulator = new Simulator(tree, threads);
+      }
+      simulator.run(games, x_policy, o_policy);
+      simulator.shutdown();
+      simulator.print_report();
+   }
+
+}
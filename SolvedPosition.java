@@ -0,0 +1,46 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// SolvedPosition.java
+// Everything playing from a solved position needs, whether that position is a
+// Node in a GameTree or a record in a TreeSnapshot. TicTacToe, GameServer and
+// Simulator play through this, so they can start straight from a snapshot file
+// when there is one instead of building and solving the tree first. Values
+// are from X's perspective, like Node's. Implemented by Node.java and
+// TreeSnapshot.View.
+// *****************************************************************************
+
+public interface SolvedPosition {
+
+   Node.Values get_value();
+   
+   boolean is_leaf();
+   
+   int get_depth();
+   
+   int get_x_mask();
+   
+   int get_o_mask();
+   
+   // The board as a new byte[9] (0 empty, 1 X, 2 O), so the caller can change it.
+   byte[] get_state();
+   
+   int get_child_count();
+   
+   SolvedPosition get_child(int i);
+   
+   // The first of the best moves, or null at a leaf.
+   SolvedPosition get_best_move();
+   
+   // A random one of the best moves, drawn again on every call, or null at a leaf.
+   SolvedPosition get_mixed_best_move();
+   
+   // The square that was filled to get to get_best_move().
+   int get_best_square();
+   
+   // The child whose board is new_state, or null if there isn't one.
+   SolvedPosition get_this_child(byte[] new_state);
+   
+   void print_board();
+
+}
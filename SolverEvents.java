@@ -0,0 +1,56 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// SolverEvents.java
+// Custom JDK Flight Recorder events for building a GameTree, solving it, and
+// looking up moves in it. They cost next to nothing unless a recording is
+// running, and move lookups (there can be millions) aren't even allocated
+// then; check MOVE_LOOKUP.isEnabled() first. To record them:
+//    java -XX:StartFlightRecording=filename=solver.jfr TicTacToe
+// then open solver.jfr in JDK Mission Control, or print them with
+//    jfr print --categories TicTacToe solver.jfr
+// *****************************************************************************
+
+import jdk.jfr.*;
+
+public class SolverEvents {
+
+   // Whether a recording wants MoveLookup events right now. Cheap enough to check on every lookup.
+   public static final EventType MOVE_LOOKUP = EventType.getEventType(MoveLookup.class);
+   
+   @Name("tictactoe.Build")
+   @Label("Build Game Tree")
+   @Category("TicTacToe")
+   @Description("Building a GameTree in one BuildMode")
+   public static class Build extends Event {
+      @Label("Build Mode")
+      public String mode;
+      
+      @Label("Nodes")
+      public long nodes;
+   }
+   
+   @Name("tictactoe.Solve")
+   @Label("Solve Game Tree")
+   @Category("TicTacToe")
+   @Description("GameTree.init_values")
+   public static class Solve extends Event {
+      @Label("Build Mode")
+      public String mode;
+   }
+   
+   @Name("tictactoe.MoveLookup")
+   @Label("Move Lookup")
+   @Category("TicTacToe")
+   @Description("Finding a position or its best move in a solved tree")
+   @StackTrace(false)
+   public static class MoveLookup extends Event {
+      @Label("Position Key")
+      @Description("Base-3 key of the position looked up (see Bitboard.encode)")
+      public int key;
+      
+      @Label("Found")
+      public boolean found;
+   }
+
+}
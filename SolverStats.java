@@ -0,0 +1,82 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// SolverStats.java
+// A snapshot of how building and solving one GameTree went: counts, how long
+// each phase took, and roughly how much heap the tree took up. Made by
+// GameTree.get_stats(), or GameTree.measure() for the heap figure.
+// *****************************************************************************
+
+public class SolverStats {
+
+   private GameTree.BuildMode mode;
+   private int node_count;
+   private int leaf_count;
+   private int loss_count;
+   private int peak_depth;
+   private long build_nanos;
+   private long solve_nanos;
+   private long heap_bytes;
+   
+   public SolverStats(GameTree.BuildMode build_mode, int nodes, int leaves, int losses, int depth,
+      long build_time, long solve_time, long heap) {
+      
+      mode = build_mode;
+      node_count = nodes;
+      leaf_count = leaves;
+      loss_count = losses;
+      peak_depth = depth;
+      build_nanos = build_time;
+      solve_nanos = solve_time;
+      heap_bytes = heap;
+   }
+   
+   public GameTree.BuildMode get_mode() {
+      return mode;
+   }
+   
+   // Nodes made while building, not counting the root.
+   public int get_node_count() {
+      return node_count;
+   }
+   
+   // Finished games, counted once per path through the tree. -1 if the tree wasn't solved yet.
+   public int get_leaf_count() {
+      return leaf_count;
+   }
+   
+   public int get_loss_count() {
+      return loss_count;
+   }
+   
+   public int get_peak_depth() {
+      return peak_depth;
+   }
+   
+   public long get_build_nanos() {
+      return build_nanos;
+   }
+   
+   // 0 if init_values hasn't been called yet.
+   public long get_solve_nanos() {
+      return solve_nanos;
+   }
+   
+   public double get_nodes_per_second() {
+      return build_nanos == 0 ? 0 : (node_count + 1) * 1e9 / build_nanos;
+   }
+   
+   // Roughly how much heap the tree holds on to, or -1 if it wasn't measured. Only GameTree.measure() measures
+   // it. Next to nothing for LAZY, which doesn't build anything up front.
+   public long get_heap_bytes() {
+      return heap_bytes;
+   }
+   
+   public String toString() {
+      return String.format("%s: %d nodes, %d leaves, %d losses, peak depth %d, build %.1f ms (%.0f nodes/sec), " +
+         "solve %.1f ms", mode, node_count, leaf_count, loss_count, peak_depth, build_nanos / 1e6,
+         get_nodes_per_second(), solve_nanos / 1e6) +
+         (heap_bytes < 0 ? "" : String.format(", ~%d KB heap", heap_bytes / 1024));
+   }
+
+}
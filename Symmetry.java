@@ -0,0 +1,96 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Symmetry.java
+// The 8 symmetries of the 3x3 board (4 rotations and 4 reflections). Used by
+// GameTree.java to store and solve only one position out of each group of
+// positions that are rotations/reflections of each other.
+// *****************************************************************************
+
+public class Symmetry {
+
+   // MAP[t][i] is the square that square i gets moved to by transformation t. Transformations 0-3
+   // are rotations by 0, 90, 180 and 270 degrees clockwise. 4-7 are the same rotations, done after
+   // a left-right reflection. Transformation 0 is the identity.
+   private static final int[][] MAP = new int[8][9];
+   
+   // INVERSE[t][j] is the square that ends up at j after transformation t, so it undoes MAP[t].
+   private static final int[][] INVERSE = new int[8][9];
+   
+   // MASKS[t][mask] is a 9-bit mask (see Bitboard.java) after transformation t.
+   private static final int[][] MASKS = new int[8][512];
+   
+   static {
+      for(int t = 0; t < 8; t++) {
+         for(int i = 0; i < 9; i++) {
+            int row = i / 3;
+            int col = i % 3;
+            if(t >= 4) {
+               col = 2 - col;
+            }
+            for(int turns = 0; turns < t % 4; turns++) {
+               int old_row = row;
+               row = col;
+               col = 2 - old_row;
+            }
+            MAP[t][i] = row * 3 + col;
+            INVERSE[t][row * 3 + col] = i;
+         }
+         for(int mask = 0; mask < 512; mask++) {
+            for(int i = 0; i < 9; i++) {
+               if((mask & (1 << i)) != 0) {
+                  MASKS[t][mask] |= 1 << MAP[t][i];
+               }
+            }
+         }
+      }
+   }
+   
+   // Returns a new state that is state after transformation t.
+   public static byte[] transform(byte[] state, int t) {
+      byte[] result = new byte[9];
+      for(int i = 0; i < 9; i++) {
+         result[MAP[t][i]] = state[i];
+      }
+      return result;
+   }
+   
+   public static int transform_mask(int mask, int t) {
+      return MASKS[t][mask];
+   }
+   
+   // Returns the transformation that turns the position into its canonical form. The canonical form is
+   // whichever of the 8 transformed positions has the smallest Bitboard.encode(). Ties (symmetric positions)
+   // go to the lowest-numbered transformation.
+   public static int canonical_transform(int x_mask, int o_mask) {
+      int best_t = 0;
+      int best_key = Integer.MAX_VALUE;
+      for(int t = 0; t < 8; t++) {
+         int key = Bitboard.encode(MASKS[t][x_mask], MASKS[t][o_mask]);
+         if(key < best_key) {
+            best_key = key;
+            best_t = t;
+         }
+      }
+      return best_t;
+   }
+   
+   public static int canonical_transform(byte[] state) {
+      return canonical_transform(Bitboard.x_mask(state), Bitboard.o_mask(state));
+   }
+   
+   public static byte[] canonicalize(byte[] state) {
+      return transform(state, canonical_transform(state));
+   }
+   
+   // Where square ends up after transformation t.
+   public static int to_canonical_square(int t, int square) {
+      return MAP[t][square];
+   }
+   
+   // Undoes to_canonical_square: takes a square in the transformed board back to the original one.
+   public static int to_original_square(int t, int square) {
+      return INVERSE[t][square];
+   }
+
+}
@@ -2,17 +2,32 @@
 // Josh Waldbieser
 // 
 // TicTacToe.java
-// The driver class for playing 3x3 Tic-Tac-Toe. Uses GameTree.java and Node.java.
+// The driver class for playing 3x3 Tic-Tac-Toe. Uses GameTree.java and Node.java, or
+// TreeSnapshot.java when there's a snapshot to start from, and MonteCarloPlayer.java for
+// the mcts modes.
 // *******************************************************************************
 
+import java.nio.file.Paths;
 import java.util.*;
 
 public class TicTacToe {
 
+   // Only made the first time an mcts mode is played, since it starts its own threads.
+   private static MonteCarloPlayer mcts = null;
+
    public static void main(String[] args) {
    
-      GameTree tree = new GameTree();
-      tree.init_values();
+      // Starting from a snapshot skips building and solving the tree (java TreeSnapshot writes one).
+      SolvedPosition root;
+      TreeSnapshot snapshot = TreeSnapshot.load_if_present(Paths.get(TreeSnapshot.DEFAULT_FILE));
+      if(snapshot != null) {
+         root = snapshot.get_root();
+      }
+      else {
+         GameTree tree = new GameTree();
+         tree.init_values();
+         root = tree.get_root();
+      }
             
       Scanner input = new Scanner(System.in);
       boolean keep_playing = true;
@@ -20,16 +35,18 @@ public class TicTacToe {
          boolean good_choice = false;
          int choice = -1;
          while(!good_choice) {
-            System.out.println("Which mode do you want to run (1, 2, 3, or 4):" +
+            System.out.println("Which mode do you want to run (1, 2, 3, 4, 5, or 6):" +
                "\n\t1. optimal" +
                "\n\t2. mixed optimal" +
                "\n\t3. optimal human" +
-               "\n\t4. mixed optimal human");
+               "\n\t4. mixed optimal human" +
+               "\n\t5. mcts" +
+               "\n\t6. mcts human");
             try {
                choice = input.nextInt();
                // Clear it out so the nextLine later on will work
                input.nextLine();
-               if(choice < 1 || choice > 4) {
+               if(choice < 1 || choice > 6) {
                   throw new IndexOutOfBoundsException();
                }
                good_choice = true;
@@ -40,23 +57,23 @@ public class TicTacToe {
          }
          switch(choice) {
             case 1:
-               System.out.println(play(tree.get_root(), true, "optimal"));
+               System.out.println(play(root, true, "optimal"));
                break;
             case 2:
-               System.out.println(play(tree.get_root(), true, "mixed optimal"));
-               // Make a brand new tree and reinit values so it can have a different choice. Not good
-               // practice at all, but it's a temporary fix, and runtime is so fast anyway there's no
-               // noticeable difference.
-               tree = new GameTree();
-               tree.init_values();
+               // No need to rebuild the tree between games; the random choice is made fresh on every move.
+               System.out.println(play(root, true, "mixed optimal"));
                break;
             case 3:
-               System.out.println(play(tree.get_root(), true, "optimal human"));
+               System.out.println(play(root, true, "optimal human"));
                break;
             case 4:
-               System.out.println(play(tree.get_root(), true, "mixed optimal human"));
-               tree = new GameTree();
-               tree.init_values();
+               System.out.println(play(root, true, "mixed optimal human"));
+               break;
+            case 5:
+               System.out.println(play(root, true, "mcts"));
+               break;
+            case 6:
+               System.out.println(play(root, true, "mcts human"));
                break;
             default:
                System.out.println("It shouldn't have gotten here...");
@@ -87,7 +104,8 @@ public class TicTacToe {
 
    // The method that actually plays the game. Will eventually return the result.
    // mode: a string that specifies which config to play the game in.
-   public static Node.Values play(Node current, boolean is_X_turn, String mode) {
+   // current can be a Node or a position in a TreeSnapshot.
+   public static Node.Values play(SolvedPosition current, boolean is_X_turn, String mode) {
 
       // Each player chooses the best move possible for each state. Deterministic; will only
       // have one path.
@@ -122,7 +140,7 @@ public class TicTacToe {
          
             // Initialize new_move to the computer's move. Will be changed in the while loop
             // if it's the user's turn.
-            Node new_move = current.get_best_move();
+            SolvedPosition new_move = current.get_best_move();
             Scanner scan = new Scanner(System.in);
             boolean move_on = false;
             
@@ -144,13 +162,9 @@ public class TicTacToe {
                
                // It's a valid move, so look for the child of current that matches this proposed state.
                else {
-                  byte[] new_state = Arrays.copyOf(current.get_state(), 9);
+                  byte[] new_state = current.get_state();
                   new_state[choice] = 1;
-                  for(int i = 0; i < current.get_children().size(); i++) {
-                     if(Arrays.equals(new_state, current.get_children().get(i).get_state())) {
-                        new_move = current.get_children().get(i);
-                     }
-                  }
+                  new_move = current.get_this_child(new_state);
                   
                   // Will stop the while loop from looping
                   move_on = true;
@@ -158,6 +172,8 @@ public class TicTacToe {
               
             }
             
+            solve(new_move);
+            
             return play(new_move, !is_X_turn, "optimal human");
             
          }
@@ -174,7 +190,7 @@ public class TicTacToe {
          if(!current.is_leaf()) {
          
             // This initialization is the only difference from optimal human mode.
-            Node new_move = current.get_mixed_best_move();
+            SolvedPosition new_move = current.get_mixed_best_move();
             Scanner scan = new Scanner(System.in);
             boolean move_on = false;
             
@@ -192,20 +208,70 @@ public class TicTacToe {
                }
                
                else {
-                  byte[] new_state = Arrays.copyOf(current.get_state(), 9);
+                  byte[] new_state = current.get_state();
                   new_state[choice] = 1;
-                  for(int i = 0; i < current.get_children().size(); i++) {
-                     if(Arrays.equals(new_state, current.get_children().get(i).get_state())) {
-                        new_move = current.get_children().get(i);
-                     }
-                  }
+                  new_move = current.get_this_child(new_state);
                   
                   move_on = true;
                }
               
             }
             
-            return play(new_move, !is_X_turn, "optimal human");
+            solve(new_move);
+            
+            return play(new_move, !is_X_turn, "mixed optimal human");
+            
+         }
+         else {
+            return current.get_value();
+         }
+      }
+      
+      // Both players pick their moves with MonteCarloPlayer, under its time budget, instead of the solved values.
+      else if(mode.equals("mcts")) {
+         System.out.println(" -----");
+         current.print_board();
+         if(!current.is_leaf()) {
+            return play(mcts_move(current, is_X_turn), !is_X_turn, "mcts");
+         }
+         else {
+            return current.get_value();
+         }
+      }
+      
+      // Like optimal human, but the computer plays with MonteCarloPlayer.
+      else if(mode.equals("mcts human")) {
+         System.out.println(" -----");
+         current.print_board();
+         if(!current.is_leaf()) {
+         
+            // Only search when it's the computer's turn; it takes the whole time budget.
+            SolvedPosition new_move = is_X_turn ? null : mcts_move(current, is_X_turn);
+            Scanner scan = new Scanner(System.in);
+            
+            while(new_move == null) {
+               System.out.print("Which square do you want to fill? (0, 1, ..., 8): ");
+               int choice = scan.nextInt();
+               System.out.println();
+               
+               if(choice < 0 || choice > 8) {
+                  System.out.println("ERR: OUT OF BOUNDS");
+               }
+               
+               else if(current.get_state()[choice] != 0) {
+                  System.out.println("ERR: ALREADY FILLED");
+               }
+               
+               else {
+                  byte[] new_state = current.get_state();
+                  new_state[choice] = 1;
+                  new_move = current.get_this_child(new_state);
+               }
+            }
+            
+            solve(new_move);
+            
+            return play(new_move, !is_X_turn, "mcts human");
             
          }
          else {
@@ -219,5 +285,26 @@ public class TicTacToe {
          return null;
       }
    }
+   
+   // In a PRUNED tree, a move the computer would never make might not have been solved yet. A snapshot has
+   // everything solved already.
+   private static void solve(SolvedPosition position) {
+      if(position instanceof Node) {
+         ((Node)position).set_value();
+      }
+   }
+   
+   // The child of current that MonteCarloPlayer picks.
+   private static SolvedPosition mcts_move(SolvedPosition current, boolean is_X_turn) {
+      if(mcts == null) {
+         mcts = new MonteCarloPlayer(0);
+      }
+      int square = mcts.choose_square(current.get_x_mask(), current.get_o_mask());
+      byte[] new_state = current.get_state();
+      new_state[square] = (byte)(is_X_turn ? 1 : 2);
+      SolvedPosition next = current.get_this_child(new_state);
+      solve(next);
+      return next;
+   }
 
 }
\ No newline at end of file
@@ -0,0 +1,185 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// TranspositionTable.java
+// A fixed-size hash table of search results, keyed by Zobrist hash, that any
+// number of search threads can share without locks. Everything is in two
+// long arrays: each slot has a data word (score, bound, best square, depth)
+// and a check word, which is the hash XOR the data. A read only counts if the
+// two XOR back to the hash it's looking for, so if two threads write the same
+// slot at once the mixed-up entry is just a miss instead of a wrong answer.
+// Slots come in pairs: the first keeps whichever entry took the most work
+// (the deepest), the second always takes the newest one.
+// *****************************************************************************
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TranspositionTable {
+
+   // What the score means, from alpha-beta.
+   public static final int EXACT = 0;
+   public static final int LOWER = 1; // The real score is at least this (it caused a cutoff).
+   public static final int UPPER = 2; // The real score is at most this (nothing beat alpha).
+   
+   // probe() returns this when the position isn't there. Stored entries always have the USED bit, so they're never 0.
+   public static final long MISS = 0;
+   
+   public static final int DEFAULT_BITS = 16;
+   
+   // Data word layout: bits 0-1 score + 1, 2-3 bound, 4-7 best square (15 if none), 8-11 depth, 12 used.
+   private static final long USED = 1L << 12;
+   private static final int NO_SQUARE = 15;
+   
+   private final long[] checks;
+   private final long[] data;
+   private final int mask;
+   
+   private LongAdder probes = new LongAdder();
+   private LongAdder hits = new LongAdder();
+   private LongAdder stores = new LongAdder();
+   
+   public TranspositionTable() {
+      this(DEFAULT_BITS);
+   }
+   
+   // 2^bits slots (bits has to be at least 1), in 2^(bits - 1) pairs.
+   public TranspositionTable(int bits) {
+      if(bits < 1 || bits > 30) {
+         throw new IllegalArgumentException("bits must be between 1 and 30: " + bits);
+      }
+      checks = new long[1 << bits];
+      data = new long[1 << bits];
+      mask = (1 << bits) - 2;
+   }
+   
+   // The data word for hash, or MISS. Use the static getters below to read it.
+   public long probe(long hash) {
+      probes.increment();
+      int slot = index(hash);
+      for(int i = slot; i < slot + 2; i++) {
+         // Read data first and check against it, not against a second read of data[i].
+         long entry = data[i];
+         if((checks[i] ^ entry) == hash && entry != MISS) {
+            hits.increment();
+            return entry;
+         }
+      }
+      return MISS;
+   }
+   
+   // score is -1, 0 or 1 from the player to move. square is -1 if there's no best move.
+   public void store(long hash, int score, int bound, int square, int depth) {
+      stores.increment();
+      long entry = USED | ((long)depth << 8) | ((long)(square < 0 ? NO_SQUARE : square) << 4) | ((long)bound << 2) | (score + 1);
+      int slot = index(hash);
+      
+      // Overwrite this position if it's already here, otherwise take the deep slot if this is at least as deep.
+      int target = slot + 1;
+      long first = data[slot];
+      if((checks[slot] ^ first) == hash || depth_of(first) <= depth) {
+         target = slot;
+      }
+      data[target] = entry;
+      checks[target] = hash ^ entry;
+   }
+   
+   private int index(long hash) {
+      // Mix the high bits in, since the low bits alone are only 9 keys' worth of XORs.
+      return (int)(hash ^ (hash >>> 32)) & mask;
+   }
+   
+   public void clear() {
+      Arrays.fill(checks, 0);
+      Arrays.fill(data, 0);
+   }
+   
+   public static int score_of(long entry) {
+      return (int)(entry & 3) - 1;
+   }
+   
+   public static int bound_of(long entry) {
+      return (int)(entry >>> 2) & 3;
+   }
+   
+   public static int square_of(long entry) {
+      int square = (int)(entry >>> 4) & 15;
+      return square == NO_SQUARE ? -1 : square;
+   }
+   
+   public static int depth_of(long entry) {
+      return (int)(entry >>> 8) & 15;
+   }
+   
+   public int get_size() {
+      return data.length;
+   }
+   
+   public long get_probes() {
+      return probes.sum();
+   }
+   
+   public long get_hits() {
+      return hits.sum();
+   }
+   
+   public long get_stores() {
+      return stores.sum();
+   }
+   
+   // Usage: java TranspositionTable [threads [bits]]
+   // Solves every legal position with and without a shared table, and prints the node counts and times.
+   public static void main(String[] args) throws Exception {
+      final int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      int bits = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BITS;
+      
+      final List<int[]> positions = new ArrayList<int[]>();
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) == 0 && RetrogradeSolver.is_legal(x_mask, o_mask)) {
+               positions.add(new int[] {x_mask, o_mask});
+            }
+         }
+      }
+      
+      for(int pass = 0; pass < 2; pass++) {
+         final TranspositionTable table = pass == 0 ? null : new TranspositionTable(bits);
+         final LongAdder nodes = new LongAdder();
+         ExecutorService pool = Executors.newFixedThreadPool(threads);
+         List<Future<?>> work = new ArrayList<Future<?>>();
+         long start = System.nanoTime();
+         for(int t = 0; t < threads; t++) {
+            final int first = t;
+            work.add(pool.submit(new Runnable() {
+               public void run() {
+                  SearchBoard board = new SearchBoard();
+                  for(int i = first; i < positions.size(); i += threads) {
+                     board.set_position(positions.get(i)[0], positions.get(i)[1]);
+                     if(table == null) {
+                        board.alpha_beta();
+                     }
+                     else {
+                        board.alpha_beta(table);
+                     }
+                     nodes.add(board.get_nodes());
+                  }
+               }
+            }));
+         }
+         for(Future<?> future : work) {
+            future.get();
+         }
+         long nanos = System.nanoTime() - start;
+         pool.shutdown();
+         
+         System.out.printf("%-13s %d positions, %d nodes in %.1f ms on %d threads%n", table == null ? "no table:" : "shared table:",
+            positions.size(), nodes.sum(), nanos / 1e6, threads);
+         if(table != null) {
+            System.out.printf("              %d probes, %d hits (%.1f%%), %d stores, %d slots%n", table.get_probes(), table.get_hits(),
+               100.0 * table.get_hits() / table.get_probes(), table.get_stores(), table.get_size());
+         }
+      }
+   }
+
+}
@@ -0,0 +1,348 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// TreeSnapshot.java
+// A solved tree saved to a file once and then memory-mapped, so starting up
+// doesn't mean building and solving the tree again. Positions are read right
+// out of the mapped file; no Node objects are made. The file is a 32-byte
+// header and then one fixed 16-byte record per position, in CompactTree order
+// (children next to each other, after their parent). All numbers big-endian.
+//
+//    header:  int magic "TTTS"   int version   int positions   int record size
+//             long CRC32 of all the records    long reserved (0)
+//    record:  int state (x_mask | o_mask << 9)  int first child
+//             byte child count   byte value (Node.Values ordinal, X's view)
+//             byte depth   byte best child
+//             short best children (bit c is set if child c is a best move)
+//             short reserved (0)
+//
+// A file with the wrong magic, a version this code doesn't know, the wrong
+// size, or (when checked) the wrong CRC is refused with an IOException. The
+// programs that start from the file only check the header; the CRC is for
+// java TreeSnapshot <file> --verify.
+// TicTacToe, GameServer, Simulator, BatchQuery and GameLogAnalyzer start from
+// DEFAULT_FILE when it's there (see load_if_present), and only build the tree
+// when it isn't. Uses CompactTree.java and SolvedPosition.java.
+// *****************************************************************************
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+public class TreeSnapshot {
+
+   public static final int MAGIC = 0x54545453; // "TTTS"
+   public static final int VERSION = 1;
+   
+   public static final int HEADER_SIZE = 32;
+   public static final int RECORD_SIZE = 16;
+   
+   public static final String DEFAULT_FILE = "tictactoe.snapshot";
+   
+   // Offsets inside a record.
+   private static final int STATE = 0;
+   private static final int FIRST_CHILD = 4;
+   private static final int CHILD_COUNT = 8;
+   private static final int VALUE = 9;
+   private static final int DEPTH = 10;
+   private static final int BEST_CHILD = 11;
+   private static final int BEST_MASK = 12;
+   
+   private static final Node.Values[] VALUES = Node.Values.values();
+   
+   // Only absolute gets are used on it, so any number of threads can read at once.
+   private final ByteBuffer buffer;
+   private final int size;
+   
+   private TreeSnapshot(ByteBuffer mapped, int positions) {
+      buffer = mapped;
+      size = positions;
+   }
+   
+   // Writes tree to file. It goes to a temporary file first and is then moved into place, so a crash
+   // halfway through never leaves a broken snapshot behind.
+   public static void write(CompactTree tree, Path file) throws IOException {
+      int size = tree.get_size();
+      ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + size * RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+      
+      out.position(HEADER_SIZE);
+      for(int i = 0; i < size; i++) {
+         int first = tree.get_first_child(i);
+         int count = tree.get_child_count(i);
+         int best_mask = 0;
+         for(int c = 0; c < count; c++) {
+            if(tree.get_value(first + c) == tree.get_value(i)) {
+               best_mask |= 1 << c;
+            }
+         }
+         out.putInt(tree.get_state(i));
+         out.putInt(first);
+         out.put((byte)count);
+         out.put((byte)tree.get_value(i).ordinal());
+         out.put((byte)tree.get_depth(i));
+         out.put((byte)(count == 0 ? 0 : tree.get_best_child(i) - first));
+         out.putShort((short)best_mask);
+         out.putShort((short)0);
+      }
+      
+      CRC32 crc = new CRC32();
+      out.position(HEADER_SIZE);
+      crc.update(out);
+      
+      out.position(0);
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(size);
+      out.putInt(RECORD_SIZE);
+      out.putLong(crc.getValue());
+      out.putLong(0);
+      out.position(0);
+      
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+         while(out.hasRemaining()) {
+            channel.write(out);
+         }
+         channel.force(true);
+      }
+      try {
+         Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch(AtomicMoveNotSupportedException e) {
+         Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+   
+   // Maps file and checks the header and the CRC.
+   public static TreeSnapshot load(Path file) throws IOException {
+      return load(file, true);
+   }
+   
+   // With verify false the CRC isn't checked, which skips reading the whole file up front. The header is
+   // always checked.
+   public static TreeSnapshot load(Path file, boolean verify) throws IOException {
+      ByteBuffer mapped;
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         if(channel.size() < HEADER_SIZE) {
+            throw new IOException(file + ": too short to be a snapshot");
+         }
+         // The mapping stays valid after the channel is closed.
+         mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+      }
+      
+      if(mapped.getInt(0) != MAGIC) {
+         throw new IOException(file + ": not a snapshot");
+      }
+      int version = mapped.getInt(4);
+      if(version != VERSION) {
+         throw new IOException(file + ": snapshot version " + version + " isn't supported (expected " + VERSION + ")");
+      }
+      int size = mapped.getInt(8);
+      if(mapped.getInt(12) != RECORD_SIZE || size <= 0 || mapped.capacity() != HEADER_SIZE + (long)size * RECORD_SIZE) {
+         throw new IOException(file + ": snapshot size doesn't match its header");
+      }
+      
+      if(verify) {
+         CRC32 crc = new CRC32();
+         crc.update(mapped.duplicate().position(HEADER_SIZE));
+         if(crc.getValue() != mapped.getLong(16)) {
+            throw new IOException(file + ": snapshot checksum doesn't match");
+         }
+      }
+      return new TreeSnapshot(mapped, size);
+   }
+   
+   // The snapshot in file, or null if there's no such file or it can't be used (then the reason goes to
+   // System.err, so it doesn't get mixed in with a program's real output). For programs that would rather
+   // start from the file and build the tree only when they have to. Only the header is checked, so starting
+   // up doesn't read the whole file; java TreeSnapshot <file> --verify checks the CRC.
+   public static TreeSnapshot load_if_present(Path file) {
+      if(!Files.exists(file)) {
+         return null;
+      }
+      try {
+         return load(file, false);
+      }
+      catch(IOException e) {
+         System.err.println("Not using the snapshot: " + e.getMessage());
+         return null;
+      }
+   }
+   
+   private int at(int i) {
+      return HEADER_SIZE + i * RECORD_SIZE;
+   }
+   
+   public int get_size() {
+      return size;
+   }
+   
+   public View get_root() {
+      return new View(CompactTree.ROOT);
+   }
+   
+   // Index-based access, the same as CompactTree's.
+   public int get_state(int i) {
+      return buffer.getInt(at(i) + STATE);
+   }
+   
+   public Node.Values get_value(int i) {
+      return VALUES[buffer.get(at(i) + VALUE)];
+   }
+   
+   public int get_depth(int i) {
+      return buffer.get(at(i) + DEPTH);
+   }
+   
+   public int get_first_child(int i) {
+      return buffer.getInt(at(i) + FIRST_CHILD);
+   }
+   
+   public int get_child_count(int i) {
+      return buffer.get(at(i) + CHILD_COUNT);
+   }
+   
+   // Index of node i's best move, or -1 if node i is a leaf.
+   public int get_best_child(int i) {
+      return get_child_count(i) == 0 ? -1 : get_first_child(i) + buffer.get(at(i) + BEST_CHILD);
+   }
+   
+   // Bit c is set if node i's child c is as good as its best move.
+   public int get_best_children_mask(int i) {
+      return buffer.getShort(at(i) + BEST_MASK) & 0xFFFF;
+   }
+   
+   // A read-only stand-in for Node, like CompactTree.View.
+   public class View implements SolvedPosition {
+   
+      private int index;
+      
+      public View(int node_index) {
+         index = node_index;
+      }
+      
+      public int get_index() {
+         return index;
+      }
+      
+      public Node.Values get_value() {
+         return TreeSnapshot.this.get_value(index);
+      }
+      
+      public int get_depth() {
+         return TreeSnapshot.this.get_depth(index);
+      }
+      
+      public boolean is_leaf() {
+         return get_child_count() == 0;
+      }
+      
+      public int get_x_mask() {
+         return TreeSnapshot.this.get_state(index) & Bitboard.FULL;
+      }
+      
+      public int get_o_mask() {
+         return TreeSnapshot.this.get_state(index) >>> 9;
+      }
+      
+      public byte[] get_state() {
+         return Bitboard.to_state(get_x_mask(), get_o_mask());
+      }
+      
+      public int get_child_count() {
+         return TreeSnapshot.this.get_child_count(index);
+      }
+      
+      public View get_child(int i) {
+         return new View(get_first_child(index) + i);
+      }
+      
+      public View get_best_move() {
+         return is_leaf() ? null : new View(get_best_child(index));
+      }
+      
+      // A random one of the best moves.
+      public View get_mixed_best_move() {
+         int mask = get_best_children_mask(index);
+         if(mask == 0) {
+            return null;
+         }
+         int pick = ThreadLocalRandom.current().nextInt(Integer.bitCount(mask));
+         for(int i = 0; i < pick; i++) {
+            mask &= mask - 1;
+         }
+         return get_child(Integer.numberOfTrailingZeros(mask));
+      }
+      
+      // The square that was filled to get to get_best_move().
+      public int get_best_square() {
+         int changed = TreeSnapshot.this.get_state(get_best_child(index)) ^ TreeSnapshot.this.get_state(index);
+         return Integer.numberOfTrailingZeros(changed) % 9;
+      }
+      
+      public View get_this_child(byte[] new_state) {
+         int packed = Bitboard.x_mask(new_state) | (Bitboard.o_mask(new_state) << 9);
+         int first = get_first_child(index);
+         for(int c = first; c < first + get_child_count(); c++) {
+            if(TreeSnapshot.this.get_state(c) == packed) {
+               return new View(c);
+            }
+         }
+         return null;
+      }
+      
+      public void print_board() {
+         new Node(get_x_mask(), get_o_mask(), get_depth()).print_board();
+      }
+   }
+   
+   // Usage: java TreeSnapshot [file [--rebuild | --verify]]
+   // Writes the snapshot if it isn't there yet (or with --rebuild), then times loading it with and without
+   // the checksum and plays one optimal game straight from the file. --verify only checks the file, CRC and
+   // all, and fails with an IOException if it's no good.
+   public static void main(String[] args) throws IOException {
+      Path file = Paths.get(args.length > 0 ? args[0] : DEFAULT_FILE);
+      boolean rebuild = args.length > 1 && args[1].equals("--rebuild");
+      
+      if(args.length > 1 && args[1].equals("--verify")) {
+         System.out.println(file + ": " + load(file).get_size() + " positions, checksum OK");
+         return;
+      }
+      
+      if(rebuild || !Files.exists(file)) {
+         long start = System.nanoTime();
+         CompactTree tree = new CompactTree();
+         long built = System.nanoTime();
+         write(tree, file);
+         long written = System.nanoTime();
+         System.out.printf("built and solved in %.1f ms, wrote %d KB to %s in %.1f ms%n", (built - start) / 1e6,
+            Files.size(file) / 1024, file, (written - built) / 1e6);
+      }
+      
+      long start = System.nanoTime();
+      TreeSnapshot snapshot = load(file, false);
+      long nanos = System.nanoTime() - start;
+      System.out.printf("loaded %d positions (no checksum) in %.2f ms%n", snapshot.get_size(), nanos / 1e6);
+      
+      start = System.nanoTime();
+      snapshot = load(file);
+      nanos = System.nanoTime() - start;
+      System.out.printf("loaded %d positions (checksum OK) in %.2f ms%n", snapshot.get_size(), nanos / 1e6);
+      
+      View current = snapshot.get_root();
+      while(true) {
+         System.out.println(" -----");
+         current.print_board();
+         if(current.is_leaf()) {
+            break;
+         }
+         current = current.get_best_move();
+      }
+      System.out.println(current.get_value());
+   }
+
+}
@@ -0,0 +1,51 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Zobrist.java
+// Random 64-bit keys for each piece on each square. A board's hash is the XOR
+// of the keys for every piece on it, so a move changes the hash with a single
+// XOR, and taking the move back is the same XOR again. Whose turn it is comes
+// from the piece count, so there's no key for the side to move. The seed is
+// fixed so hashes are the same on every run.
+// *****************************************************************************
+
+import java.util.SplittableRandom;
+
+public class Zobrist {
+
+   private static final long SEED = 0x5EED_7AC7_0E5L;
+   
+   private static final long[] X_KEYS = new long[9];
+   private static final long[] O_KEYS = new long[9];
+   
+   static {
+      SplittableRandom random = new SplittableRandom(SEED);
+      for(int square = 0; square < 9; square++) {
+         X_KEYS[square] = random.nextLong();
+         O_KEYS[square] = random.nextLong();
+      }
+   }
+   
+   public static long x_key(int square) {
+      return X_KEYS[square];
+   }
+   
+   public static long o_key(int square) {
+      return O_KEYS[square];
+   }
+   
+   // From scratch. Searches should keep it up to date one move at a time instead (see SearchBoard.make).
+   public static long hash(int x_mask, int o_mask) {
+      long hash = 0;
+      for(int square = 0; square < 9; square++) {
+         if((x_mask & (1 << square)) != 0) {
+            hash ^= X_KEYS[square];
+         }
+         else if((o_mask & (1 << square)) != 0) {
+            hash ^= O_KEYS[square];
+         }
+      }
+      return hash;
+   }
+
+}
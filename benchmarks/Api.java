@@ -0,0 +1,120 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// Api.java
+// JMH won't run benchmarks in the default package, and classes in a named
+// package can't refer to the ones in the default package (where the rest of
+// this project lives). So the benchmarks get at GameTree, Node, Oracle,
+// TicTacToe and BatchWinEvaluator through these method handles. They're static final, so the JIT
+// treats them as constants and the calls cost about the same as direct ones.
+// *****************************************************************************
+
+package benchmarks;
+
+import java.lang.invoke.*;
+
+public class Api {
+
+   private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+   
+   private static final Class<?> GAME_TREE = find("GameTree");
+   private static final Class<?> BUILD_MODE = find("GameTree$BuildMode");
+   private static final Class<?> NODE = find("Node");
+   private static final Class<?> VALUES = find("Node$Values");
+   private static final Class<?> SOLVED_POSITION = find("SolvedPosition");
+   private static final Class<?> ORACLE = find("Oracle");
+   private static final Class<?> TIC_TAC_TOE = find("TicTacToe");
+   private static final Class<?> BATCH_WIN_EVALUATOR = find("BatchWinEvaluator");
+   
+   // (BuildMode) -> GameTree
+   public static final MethodHandle NEW_TREE = generic(constructor(GAME_TREE, BUILD_MODE));
+   // (GameTree) -> void
+   public static final MethodHandle INIT_VALUES = generic(virtual(GAME_TREE, "init_values", void.class));
+   // (GameTree) -> Node
+   public static final MethodHandle GET_ROOT = generic(virtual(GAME_TREE, "get_root", NODE));
+   // (GameTree, byte[]) -> byte[]
+   public static final MethodHandle TREE_BEST_MOVE = generic(virtual(GAME_TREE, "get_best_move", byte[].class, byte[].class));
+   // (Node, byte[]) -> Node
+   public static final MethodHandle GET_THIS_CHILD = generic(virtual(NODE, "get_this_child", NODE, byte[].class));
+   // (Node) -> Node
+   public static final MethodHandle NODE_BEST_MOVE = generic(virtual(NODE, "get_best_move", NODE));
+   // (GameTree) -> Oracle
+   public static final MethodHandle NEW_ORACLE = generic(constructor(ORACLE, GAME_TREE));
+   // (Oracle, int) -> int
+   public static final MethodHandle ORACLE_BEST_SQUARE = generic(virtual(ORACLE, "get_best_square", int.class, int.class));
+   // (byte[]) -> int
+   public static final MethodHandle ORACLE_ENCODE = generic(static_method(ORACLE, "encode", int.class, byte[].class));
+   // (SolvedPosition, boolean, String) -> Node.Values
+   public static final MethodHandle PLAY = generic(static_method(TIC_TAC_TOE, "play", VALUES, SOLVED_POSITION, boolean.class,
+      String.class));
+   // (int x_mask, int o_mask, int depth) -> Node
+   public static final MethodHandle NEW_NODE = generic(constructor(NODE, int.class, int.class, int.class));
+   // (Node) -> Node.Values
+   public static final MethodHandle IS_WIN_LOSS = generic(virtual(NODE, "is_win_loss", VALUES));
+   // (int[], byte[]) -> void
+   public static final MethodHandle BATCH_EVALUATE = generic(static_method(BATCH_WIN_EVALUATOR, "evaluate", void.class, int[].class,
+      byte[].class));
+   // (int[], byte[]) -> void
+   public static final MethodHandle BATCH_EVALUATE_SCALAR = generic(static_method(BATCH_WIN_EVALUATOR, "evaluate_scalar", void.class,
+      int[].class, byte[].class));
+   // (int count, long seed) -> int[]
+   public static final MethodHandle RANDOM_STATES = generic(static_method(BATCH_WIN_EVALUATOR, "random_states", int[].class, int.class,
+      long.class));
+   
+   // GameTree.BuildMode.valueOf(name)
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   public static Object build_mode(String name) {
+      return Enum.valueOf((Class)BUILD_MODE, name);
+   }
+   
+   private static Class<?> find(String name) {
+      try {
+         return Class.forName(name);
+      }
+      catch(ClassNotFoundException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+   
+   private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+      try {
+         return LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters));
+      }
+      catch(ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+   
+   private static MethodHandle virtual(Class<?> owner, String name, Class<?> result, Class<?>... parameters) {
+      try {
+         return LOOKUP.findVirtual(owner, name, MethodType.methodType(result, parameters));
+      }
+      catch(ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+   
+   private static MethodHandle static_method(Class<?> owner, String name, Class<?> result, Class<?>... parameters) {
+      try {
+         return LOOKUP.findStatic(owner, name, MethodType.methodType(result, parameters));
+      }
+      catch(ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+   
+   // Swaps every default-package type in the signature for Object, so the benchmarks can call invokeExact.
+   private static MethodHandle generic(MethodHandle handle) {
+      MethodType type = handle.type();
+      for(int i = 0; i < type.parameterCount(); i++) {
+         if(type.parameterType(i).getPackageName().isEmpty()) {
+            type = type.changeParameterType(i, Object.class);
+         }
+      }
+      if(type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive()) {
+         type = type.changeReturnType(Object.class);
+      }
+      return handle.asType(type);
+   }
+
+}
@@ -0,0 +1,69 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// LookupBenchmark.java
+// JMH benchmarks for finding the best move in a solved tree: walking down with
+// Node.get_this_child, asking GameTree.get_best_move(byte[]), and the Oracle.
+// *****************************************************************************
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+   // A game of X in the corner, O in the center, X in the opposite corner, then O on an edge.
+   private static final int[] MOVES = {0, 4, 8, 1};
+   
+   private Object tree;
+   private Object root;
+   private Object oracle;
+   
+   // states[i] is the board after the first i + 1 moves.
+   private byte[][] states = new byte[MOVES.length][];
+   
+   @Setup
+   public void solve() throws Throwable {
+      tree = (Object)Api.NEW_TREE.invokeExact(Api.build_mode("TRANSPOSITION"));
+      Api.INIT_VALUES.invokeExact(tree);
+      root = (Object)Api.GET_ROOT.invokeExact(tree);
+      oracle = (Object)Api.NEW_ORACLE.invokeExact(tree);
+      
+      byte[] state = new byte[9];
+      for(int i = 0; i < MOVES.length; i++) {
+         state = state.clone();
+         state[MOVES[i]] = (byte)(i % 2 == 0 ? 1 : 2);
+         states[i] = state;
+      }
+   }
+   
+   // Walks from the root to the last position with get_this_child, then takes the best move.
+   @Benchmark
+   public Object get_this_child() throws Throwable {
+      Object current = root;
+      for(int i = 0; i < states.length; i++) {
+         current = (Object)Api.GET_THIS_CHILD.invokeExact(current, states[i]);
+      }
+      return (Object)Api.NODE_BEST_MOVE.invokeExact(current);
+   }
+   
+   @Benchmark
+   public byte[] tree_best_move() throws Throwable {
+      return (byte[])Api.TREE_BEST_MOVE.invokeExact(tree, states[states.length - 1]);
+   }
+   
+   @Benchmark
+   public int oracle_best_move() throws Throwable {
+      int key = (int)Api.ORACLE_ENCODE.invokeExact(states[states.length - 1]);
+      return (int)Api.ORACLE_BEST_SQUARE.invokeExact(oracle, key);
+   }
+
+}
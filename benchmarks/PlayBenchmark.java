@@ -0,0 +1,50 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// PlayBenchmark.java
+// JMH benchmark for whole games through TicTacToe.play, in the modes that
+// don't need a person at the keyboard. play prints every board, so System.out
+// is pointed at a stream that throws the output away while this runs.
+// *****************************************************************************
+
+package benchmarks;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayBenchmark {
+
+   @Param({"optimal", "mixed optimal"})
+   public String play_mode;
+   
+   private Object root;
+   private PrintStream real_out;
+   
+   @Setup
+   public void solve() throws Throwable {
+      Object tree = (Object)Api.NEW_TREE.invokeExact(Api.build_mode("TRANSPOSITION"));
+      Api.INIT_VALUES.invokeExact(tree);
+      root = (Object)Api.GET_ROOT.invokeExact(tree);
+      real_out = System.out;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+   }
+   
+   @TearDown
+   public void restore_out() {
+      System.setOut(real_out);
+   }
+   
+   @Benchmark
+   public Object play() throws Throwable {
+      return (Object)Api.PLAY.invokeExact(root, true, play_mode);
+   }
+
+}
@@ -0,0 +1,56 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// TreeBenchmark.java
+// JMH benchmarks for building a GameTree and for solving it with init_values,
+// in each BuildMode.
+// *****************************************************************************
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeBenchmark {
+
+   @Param({"TREE", "TRANSPOSITION", "SYMMETRY", "PARALLEL", "LAZY", "PRUNED"})
+   public String mode;
+   
+   private Object build_mode;
+   
+   // init_values only does any work the first time, so every call to solve gets a fresh tree. It's in a state
+   // of its own so generate doesn't build one before every call as well.
+   @State(Scope.Thread)
+   public static class Unsolved {
+      private Object tree;
+      
+      @Setup(Level.Invocation)
+      public void build(TreeBenchmark benchmark) throws Throwable {
+         tree = (Object)Api.NEW_TREE.invokeExact(benchmark.build_mode);
+      }
+   }
+   
+   @Setup
+   public void find_mode() {
+      build_mode = Api.build_mode(mode);
+   }
+   
+   @Benchmark
+   public Object generate() throws Throwable {
+      return (Object)Api.NEW_TREE.invokeExact(build_mode);
+   }
+   
+   @Benchmark
+   public Object solve(Unsolved unsolved) throws Throwable {
+      Api.INIT_VALUES.invokeExact(unsolved.tree);
+      return unsolved.tree;
+   }
+
+}
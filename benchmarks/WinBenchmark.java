@@ -0,0 +1,65 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// WinBenchmark.java
+// JMH benchmarks for checking a big array of boards for wins: BatchWinEvaluator
+// with the Vector API kernel, its scalar loop, and Node.is_win_loss one Node at
+// a time. Scores are in boards per microsecond. The fork gets
+// --add-modules jdk.incubator.vector so the vector kernel can load.
+// *****************************************************************************
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class WinBenchmark {
+
+   private static final int BOARDS = 1 << 16;
+   
+   private int[] states;
+   private byte[] results = new byte[BOARDS];
+   private Object[] nodes = new Object[BOARDS];
+   
+   @Setup
+   public void make_boards() throws Throwable {
+      states = (int[])Api.RANDOM_STATES.invokeExact(BOARDS, 42L);
+      for(int i = 0; i < BOARDS; i++) {
+         nodes[i] = (Object)Api.NEW_NODE.invokeExact(states[i] & 0x1FF, states[i] >>> 9, Integer.bitCount(states[i]));
+      }
+   }
+   
+   @Benchmark
+   @OperationsPerInvocation(BOARDS)
+   public byte[] batch() throws Throwable {
+      Api.BATCH_EVALUATE.invokeExact(states, results);
+      return results;
+   }
+   
+   @Benchmark
+   @OperationsPerInvocation(BOARDS)
+   public byte[] batch_scalar() throws Throwable {
+      Api.BATCH_EVALUATE_SCALAR.invokeExact(states, results);
+      return results;
+   }
+   
+   @Benchmark
+   @OperationsPerInvocation(BOARDS)
+   public int node_is_win_loss() throws Throwable {
+      int wins = 0;
+      for(int i = 0; i < BOARDS; i++) {
+         if((Object)Api.IS_WIN_LOSS.invokeExact(nodes[i]) != null) {
+            wins++;
+         }
+      }
+      return wins;
+   }
+
+}
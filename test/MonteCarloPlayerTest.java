@@ -0,0 +1,69 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// MonteCarloPlayerTest.java
+// MonteCarloPlayer only estimates, so it isn't held to exact search
+// everywhere. But where the game is already decided (the player to move can
+// force a win), a big enough budget has to find a move that keeps the win,
+// the same as SearchBoard's alpha-beta says. The player is seeded, so every
+// run plays the same playouts.
+// *****************************************************************************
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class MonteCarloPlayerTest {
+
+   // Ten times what it takes in practice: unseeded, 500 playouts got every one of these right in three runs
+   // in a row, so the seed isn't what makes it pass.
+   private static final long PLAYOUTS = 5000;
+   
+   private static MonteCarloPlayer player;
+   
+   @BeforeAll
+   static void start() {
+      player = new MonteCarloPlayer(2);
+      player.set_playout_budget(PLAYOUTS);
+      player.set_seed(20261018);
+   }
+   
+   @AfterAll
+   static void stop() {
+      player.shutdown();
+   }
+   
+   // Every unfinished position with at least 4 pieces that's a forced win for whoever's turn it is.
+   @Test
+   void keeps_forced_wins() {
+      SearchBoard exact = new SearchBoard();
+      int positions = 0;
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) != 0 || Integer.bitCount(x_mask | o_mask) < 4 || !RetrogradeSolver.is_legal(x_mask, o_mask)) {
+               continue;
+            }
+            // Scores are from the player to move: 1 is a win.
+            exact.set_position(x_mask, o_mask);
+            if(exact.is_over() || exact.alpha_beta() != 1) {
+               continue;
+            }
+            
+            int square = player.choose_square(x_mask, o_mask);
+            assertEquals(0, (x_mask | o_mask) & (1 << square), "filled square, x_mask " + x_mask + ", o_mask " + o_mask);
+            exact.make(square);
+            assertEquals(-1, exact.alpha_beta(), "square " + square + " from x_mask " + x_mask + ", o_mask " + o_mask);
+            exact.unmake();
+            positions++;
+         }
+      }
+      assertTrue(positions > 1000, "only " + positions + " positions checked");
+   }
+   
+   @Test
+   void nothing_to_pick_when_the_game_is_over() {
+      // X has the top row.
+      assertEquals(-1, player.choose_square(0x7, 0x18));
+   }
+
+}
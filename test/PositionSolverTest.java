@@ -0,0 +1,97 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// PositionSolverTest.java
+// Solves every legal position with PositionSolver and checks it against the
+// Oracle. The value has to be the same, and the best square has to be one of
+// the Oracle's best squares (any of them: ties can be broken differently), as
+// does every move of the principal variation. Also checks that boards that
+// can't come up in a game are turned away.
+// *****************************************************************************
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class PositionSolverTest {
+
+   private static Oracle oracle;
+   
+   @BeforeAll
+   static void solve() {
+      GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+      tree.init_values();
+      oracle = new Oracle(tree);
+   }
+   
+   @Test
+   void every_position_matches_the_oracle() {
+      PositionSolver solver = new PositionSolver();
+      int positions = 0;
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) != 0 || !RetrogradeSolver.is_legal(x_mask, o_mask)) {
+               continue;
+            }
+            positions++;
+            boolean is_X_turn = Integer.bitCount(x_mask) == Integer.bitCount(o_mask);
+            PositionSolver.Result result = solver.solve(x_mask, o_mask, is_X_turn);
+            int key = Bitboard.encode(x_mask, o_mask);
+            assertEquals(oracle.get_value(key), result.get_value(), "key " + key);
+            
+            // Play out the principal variation. Every move has to keep the value, and it has to end the game.
+            int[] variation = result.get_principal_variation();
+            assertEquals(variation.length == 0 ? -1 : variation[0], result.get_best_square(), "key " + key);
+            int x = x_mask;
+            int o = o_mask;
+            for(int i = 0; i < variation.length; i++) {
+               int move_key = Bitboard.encode(x, o);
+               assertNotEquals(0, oracle.get_best_mask(move_key) & (1 << variation[i]),
+                  "square " + variation[i] + " isn't a best move at key " + move_key + " (from key " + key + ")");
+               if(Integer.bitCount(x) == Integer.bitCount(o)) {
+                  x |= 1 << variation[i];
+               }
+               else {
+                  o |= 1 << variation[i];
+               }
+            }
+            assertTrue(Bitboard.is_win(x) || Bitboard.is_win(o) || (x | o) == Bitboard.FULL,
+               "game not over after the variation from key " + key);
+         }
+      }
+      assertEquals(5478, positions);
+   }
+   
+   @Test
+   void turns_away_impossible_boards() {
+      // Two more X's than O's.
+      assert_rejected("XX.......", true);
+      // Both sides have three in a row.
+      assert_rejected("XXXOOO...", true);
+      // The right pieces, but the wrong side to move.
+      assert_rejected("X........", true);
+      // Not boards at all.
+      assert_rejected("X..Q.....", false);
+      assert_rejected("X..", false);
+   }
+   
+   // board is written like GameServer's (see PositionSolver.parse_board).
+   private static void assert_rejected(String board, boolean is_X_turn) {
+      try {
+         new PositionSolver(10).solve(PositionSolver.parse_board(board), is_X_turn);
+         fail(board + " was solved");
+      }
+      catch(IllegalArgumentException e) {
+         // What's supposed to happen.
+      }
+   }
+   
+   @Test
+   void finished_game_has_no_best_square() {
+      PositionSolver.Result result = new PositionSolver(10).solve(PositionSolver.parse_board("XXXOO...."), false);
+      assertEquals(Node.Values.WIN, result.get_value());
+      assertEquals(-1, result.get_best_square());
+      assertEquals(0, result.get_principal_variation().length);
+   }
+
+}
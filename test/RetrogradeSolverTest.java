@@ -0,0 +1,65 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// RetrogradeSolverTest.java
+// Checks the backwards solve against the top-down one: every key has to get
+// the same value as a solved GameTree gives it (through the Oracle), and the
+// best squares and distances have to hold up move by move.
+// *****************************************************************************
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class RetrogradeSolverTest {
+
+   private static RetrogradeSolver retrograde;
+   private static Oracle oracle;
+   
+   @BeforeAll
+   static void solve() {
+      retrograde = new RetrogradeSolver();
+      GameTree tree = new GameTree(GameTree.BuildMode.TRANSPOSITION);
+      tree.init_values();
+      oracle = new Oracle(tree);
+   }
+   
+   @Test
+   void finds_every_legal_position() {
+      assertEquals(5478, retrograde.get_legal_count());
+   }
+   
+   // Keys that can't come up in a game are null in both.
+   @Test
+   void values_match_game_tree() {
+      for(int key = 0; key < Oracle.SIZE; key++) {
+         assertEquals(oracle.get_value(key), retrograde.get_value(key), "key " + key);
+      }
+   }
+   
+   // The best square keeps the value, and the game is one move closer to being over after it.
+   @Test
+   void best_squares_keep_the_value() {
+      for(int x_mask = 0; x_mask <= Bitboard.FULL; x_mask++) {
+         for(int o_mask = 0; o_mask <= Bitboard.FULL; o_mask++) {
+            if((x_mask & o_mask) != 0 || !RetrogradeSolver.is_legal(x_mask, o_mask)) {
+               continue;
+            }
+            int key = Bitboard.encode(x_mask, o_mask);
+            int square = retrograde.get_best_square(key);
+            if(Bitboard.is_win(x_mask) || Bitboard.is_win(o_mask) || (x_mask | o_mask) == Bitboard.FULL) {
+               assertEquals(-1, square, "finished game, key " + key);
+               assertEquals(0, retrograde.get_distance(key), "finished game, key " + key);
+               continue;
+            }
+            
+            assertEquals(0, (x_mask | o_mask) & (1 << square), "filled square, key " + key);
+            boolean is_X_turn = Integer.bitCount(x_mask) == Integer.bitCount(o_mask);
+            int after = is_X_turn ? Bitboard.encode(x_mask | (1 << square), o_mask) : Bitboard.encode(x_mask, o_mask | (1 << square));
+            assertEquals(retrograde.get_value(key), retrograde.get_value(after), "key " + key);
+            assertEquals(retrograde.get_distance(key) - 1, retrograde.get_distance(after), "key " + key);
+         }
+      }
+   }
+
+}
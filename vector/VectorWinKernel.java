@@ -0,0 +1,63 @@
+// *****************************************************************************
+// Josh Waldbieser
+//
+// VectorWinKernel.java
+// The Vector API version of BatchWinEvaluator's loop. Each lane holds one
+// packed board; the X and O masks are split out with a shift and an AND, and
+// every one of the 8 lines is checked in every lane with one AND and one
+// compare. Whatever doesn't fill a whole vector at the end is done by the
+// scalar loop. Needs --add-modules jdk.incubator.vector to compile and run;
+// BatchWinEvaluator only loads it if that works.
+// *****************************************************************************
+
+import jdk.incubator.vector.*;
+
+public class VectorWinKernel implements BatchWinEvaluator.Kernel {
+
+   private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+   
+   // One byte lane per int lane, so the statuses can be narrowed and stored straight into results. Only when
+   // SPECIES is at least 256 bits: no shape is smaller than 64 bits, and narrowing 4 lanes into half of one is
+   // slower than taking the lanes out one at a time.
+   private static final VectorSpecies<Byte> BYTES = SPECIES.vectorBitSize() >= 256
+      ? VectorSpecies.of(byte.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 4)) : null;
+   
+   private static final int[] LINES = Bitboard.LINES;
+   
+   public void evaluate(int[] states, byte[] results, int from, int to) {
+      int i = from;
+      for(int end = from + SPECIES.loopBound(to - from); i < end; i += SPECIES.length()) {
+         IntVector packed = IntVector.fromArray(SPECIES, states, i);
+         IntVector x_mask = packed.and(Bitboard.FULL);
+         IntVector o_mask = packed.lanewise(VectorOperators.LSHR, 9);
+         
+         VectorMask<Integer> x_win = SPECIES.maskAll(false);
+         VectorMask<Integer> o_win = SPECIES.maskAll(false);
+         for(int line = 0; line < LINES.length; line++) {
+            x_win = x_win.or(x_mask.and(LINES[line]).eq(LINES[line]));
+            o_win = o_win.or(o_mask.and(LINES[line]).eq(LINES[line]));
+         }
+         VectorMask<Integer> full = x_mask.or(o_mask).eq(Bitboard.FULL);
+         
+         // Same order as BatchWinEvaluator.evaluate(int): X's win first, then O's, then a full board.
+         IntVector status = IntVector.zero(SPECIES)
+            .blend(BatchWinEvaluator.DRAW, full)
+            .blend(BatchWinEvaluator.O_WIN, o_win)
+            .blend(BatchWinEvaluator.X_WIN, x_win);
+         if(BYTES != null) {
+            ((ByteVector)status.castShape(BYTES, 0)).intoArray(results, i);
+         }
+         else {
+            for(int lane = 0; lane < SPECIES.length(); lane++) {
+               results[i + lane] = (byte)status.lane(lane);
+            }
+         }
+      }
+      BatchWinEvaluator.SCALAR.evaluate(states, results, i, to);
+   }
+   
+   public String toString() {
+      return SPECIES.length() + " lanes of " + SPECIES.vectorBitSize() + " bits";
+   }
+
+}